@@ -0,0 +1,72 @@
+package studiosoft.project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import studiosoft.project.*;
+import studiosoft.project.components.Position;
+import studiosoft.project.components.PositionColumns;
+import studiosoft.project.components.Renderable;
+import studiosoft.project.systems.RenderSystem;
+import studiosoft.project.systems.SpatialIndexSystem;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// CPU side of RenderSystem.update (camera culling, filling the draw list and writing the batched
+// sprite vertices), with no GL context.
+// entities are spread over a 10000px square, the camera sees an 800x640 window of it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RenderSystemBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int entityCount;
+
+    private RenderSystem renderSystem;
+    private RenderSystem instancedRenderSystem;
+
+    @Setup
+    public void setup() {
+        World world = new World();
+        world.registerColumns(Position.class, new PositionColumns());
+        SpatialGrid grid = new SpatialGrid(64);
+        FixedTimestep timestep = new FixedTimestep(60, 5);
+        Camera camera = new Camera(4000f, 4000f, 1f);
+
+        Texture texture = new Texture(0, 64, 64, 32);
+        Sprite sprite = new Sprite(texture, 0, 0, 1, 1);
+        Random random = new Random(42);
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = world.createEntity();
+            entity.addComponent(new Position(random.nextFloat() * 10000f, random.nextFloat() * 10000f));
+            entity.addComponent(new Renderable(sprite));
+        }
+
+        new SpatialIndexSystem(world, grid).update(0f);
+        // shader program is only touched when submitting to GL, which this never does
+        renderSystem = new RenderSystem(world, camera, 800, 640, null, grid, timestep);
+        instancedRenderSystem = new RenderSystem(world, camera, 800, 640, null, grid, timestep);
+        instancedRenderSystem.useInstancing(null);
+    }
+
+    @Benchmark
+    public int collectVisible() {
+        return renderSystem.collectVisible();
+    }
+
+    @Benchmark
+    public int collectAndBuildBatch() {
+        int visible = renderSystem.collectVisible();
+        renderSystem.getSpriteBatch().buildVertices();
+        return visible;
+    }
+
+    @Benchmark
+    public int collectAndBuildInstances() {
+        int visible = instancedRenderSystem.collectVisible();
+        instancedRenderSystem.getInstancedBatch().buildInstances();
+        return visible;
+    }
+}
@@ -0,0 +1,32 @@
+package studiosoft.project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import studiosoft.project.Texture;
+
+import java.util.concurrent.TimeUnit;
+
+// UV lookup for every tile in a 256x256 atlas of 16px tiles
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextureBenchmark {
+    private Texture atlas;
+    private int tileCount;
+
+    @Setup
+    public void setup() {
+        atlas = new Texture(0, 256, 256, 16);
+        tileCount = (256 / 16) * (256 / 16);
+    }
+
+    @Benchmark
+    public void getTileUVs(Blackhole bh) {
+        for (int tileID = 0; tileID < tileCount; tileID++) {
+            bh.consume(atlas.getTileUVs(tileID));
+        }
+    }
+}
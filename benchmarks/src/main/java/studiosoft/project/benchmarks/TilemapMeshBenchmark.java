@@ -0,0 +1,65 @@
+package studiosoft.project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import studiosoft.project.Texture;
+import studiosoft.project.components.LevelRenderData;
+import studiosoft.project.components.TilemapRenderable;
+import studiosoft.project.systems.TilemapRenderSystem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// CPU side of tilemap mesh building (what buildTilemapVBO does before the glBufferData upload).
+// 4096x4096 needs ~1.6 GB of vertex data, hence the big direct memory limit
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-XX:MaxDirectMemorySize=4g"})
+public class TilemapMeshBenchmark {
+    @Param({"16", "256", "1024", "4096"})
+    public int mapSize;
+
+    private TilemapRenderable tilemap;
+    private Texture atlas;
+    private FloatBuffer vertexBuffer;
+
+    @Setup
+    public void setup() {
+        // same shape as bgatlas: 16px tiles, no GL texture behind it
+        atlas = new Texture(0, 256, 256, 16);
+        int tilesInAtlas = (256 / 16) * (256 / 16);
+
+        Random random = new Random(42);
+        int[][] tiles = new int[mapSize][mapSize];
+        for (int[] row : tiles) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = random.nextInt(tilesInAtlas);
+            }
+        }
+        tilemap = new TilemapRenderable(tiles, 16, 16, mapSize, mapSize);
+
+        int floats = mapSize * mapSize * TilemapRenderSystem.FLOATS_PER_TILE;
+        vertexBuffer = ByteBuffer.allocateDirect(floats * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Benchmark
+    public FloatBuffer buildVertices() {
+        vertexBuffer.clear();
+        TilemapRenderSystem.writeTilemapVertices(tilemap, atlas, vertexBuffer);
+        return vertexBuffer;
+    }
+
+    // what rebuilding one dirty chunk costs, whatever the map size
+    @Benchmark
+    public FloatBuffer buildChunkVertices() {
+        vertexBuffer.clear();
+        int size = Math.min(LevelRenderData.CHUNK_SIZE, mapSize);
+        TilemapRenderSystem.writeTilemapVertices(tilemap, atlas, 0, 0, size, size, vertexBuffer);
+        return vertexBuffer;
+    }
+}
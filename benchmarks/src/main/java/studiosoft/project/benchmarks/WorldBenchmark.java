@@ -0,0 +1,84 @@
+package studiosoft.project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import studiosoft.project.ComponentStorage;
+import studiosoft.project.Query;
+import studiosoft.project.World;
+import studiosoft.project.components.PlayerInput;
+import studiosoft.project.components.Position;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// component storage and lookup. every entity has a Position, every other one a PlayerInput too
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WorldBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int entityCount;
+
+    private World world;
+    private ComponentStorage<Position> positions;
+    private Query players;
+    private Position[] toAdd;
+
+    @Setup
+    public void setup() {
+        world = new World();
+        toAdd = new Position[entityCount];
+        for (int i = 0; i < entityCount; i++) {
+            int entityID = world.createEntity().id;
+            toAdd[i] = new Position(i, i);
+            world.addComponent(entityID, toAdd[i]);
+            if (i % 2 == 0) {
+                world.addComponent(entityID, new PlayerInput(1f));
+            }
+        }
+        positions = world.getStorage(Position.class);
+        players = world.createQuery(PlayerInput.class, Position.class);
+    }
+
+    // fill a fresh world with entityCount positions
+    @Benchmark
+    public World addComponent() {
+        World fresh = new World();
+        for (int i = 0; i < entityCount; i++) {
+            fresh.addComponent(i, toAdd[i]);
+        }
+        return fresh;
+    }
+
+    @Benchmark
+    public List<Integer> queryEntitiesWith() {
+        return world.queryEntitiesWith(PlayerInput.class, Position.class);
+    }
+
+    // the persistent query a system would hold on to, walked once
+    @Benchmark
+    public void queryIterate(Blackhole bh) {
+        for (int i = 0; i < players.size(); i++) {
+            bh.consume(players.getEntity(i));
+        }
+    }
+
+    // old Collection-returning lookup, once per entity
+    @Benchmark
+    public void getComponent(Blackhole bh) {
+        for (int i = 0; i < entityCount; i++) {
+            bh.consume(world.getComponent(Position.class, i));
+        }
+    }
+
+    // typed fast accessor, once per entity
+    @Benchmark
+    public void storageGet(Blackhole bh) {
+        for (int i = 0; i < entityCount; i++) {
+            bh.consume(positions.get(i));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package studiosoft.project;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_INVALIDATE_BUFFER_BIT;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+
+// loads textures without blocking the GL thread on decoding. PNGs are decoded on a pool of worker
+// threads, and the GL thread uploads whatever is ready through a pixel buffer object, a few at a
+// time within a per frame budget:
+//
+//     CompletableFuture<Texture> atlas = assets.loadTexture(url, 16);   // returns straight away
+//     ...
+//     assets.update(budgetNanos);   // GL thread, once a frame
+//
+// or assets.finishLoading() to block until everything asked for so far is on the GPU (startup,
+// where all the decoding still runs in parallel). texture futures are always completed on the GL
+// thread, so anything chained on them can use GL. given a TextureCache, images decoded on an
+// earlier launch are mapped from disk instead of decoded again
+public class AssetManager {
+    private final ExecutorService workers;
+    // decoded images kept on disk between launches, null to always decode
+    private final TextureCache cache;
+    // decoded images waiting for the GL thread, failures too so they're reported from there
+    private final LinkedBlockingQueue<PendingUpload> ready = new LinkedBlockingQueue<>();
+    // asked for but not uploaded (or failed) yet
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // orphaned and refilled for every upload, GL copies out of it in the background
+    private int pboID;
+
+    private static final class PendingUpload {
+        final CompletableFuture<Texture> future;
+        final int tileSize;
+        DecodedImage image;
+        Throwable failure;
+
+        PendingUpload(CompletableFuture<Texture> future, int tileSize) {
+            this.future = future;
+            this.tileSize = tileSize;
+        }
+    }
+
+    public AssetManager(int workerThreads) {
+        this(workerThreads, null);
+    }
+
+    public AssetManager(int workerThreads, TextureCache cache) {
+        this.cache = cache;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread thread = new Thread(r, "asset-loader-" + threadCount.incrementAndGet());
+            // never keeps the game from exiting
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // decode only, completes on a worker. for images that aren't going to be a texture of their own,
+    // eg ones handed to AtlasPacker. the caller frees the image
+    public CompletableFuture<DecodedImage> decode(URL source) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(source);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to decode " + source, e);
+            }
+        }, workers);
+    }
+
+    // decoded on a worker, uploaded by a later update()/finishLoading() on the GL thread
+    public CompletableFuture<Texture> loadTexture(URL source, int tileSize) {
+        PendingUpload upload = new PendingUpload(new CompletableFuture<>(), tileSize);
+        pending.incrementAndGet();
+        workers.execute(() -> {
+            try {
+                upload.image = read(source);
+            } catch (Throwable t) {
+                upload.failure = new RuntimeException("Failed to decode " + source, t);
+            }
+            ready.add(upload);
+        });
+        return upload.future;
+    }
+
+    // worker side
+    private DecodedImage read(URL source) throws Exception {
+        return cache != null ? cache.load(source) : DecodedImage.decodePNG(source);
+    }
+
+    // textures asked for that aren't on the GPU yet
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    // GL thread, once a frame. uploads decoded textures until budgetNanos is used up, always at
+    // least one if any are ready. returns how many were uploaded
+    public int update(long budgetNanos) {
+        long start = System.nanoTime();
+        int uploaded = 0;
+        PendingUpload upload;
+        while ((uploaded == 0 || System.nanoTime() - start < budgetNanos) && (upload = ready.poll()) != null) {
+            finish(upload);
+            uploaded++;
+        }
+        return uploaded;
+    }
+
+    // GL thread. blocks until every texture asked for so far has been uploaded (or failed)
+    public void finishLoading() {
+        while (pending.get() > 0) {
+            try {
+                finish(ready.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for assets", e);
+            }
+        }
+    }
+
+    private void finish(PendingUpload upload) {
+        pending.decrementAndGet();
+        if (upload.failure != null) {
+            upload.future.completeExceptionally(upload.failure);
+            return;
+        }
+        Texture texture;
+        try {
+            texture = upload(upload.image, upload.tileSize);
+        } catch (Throwable t) {
+            upload.future.completeExceptionally(t);
+            return;
+        } finally {
+            upload.image.free();
+            upload.image = null;
+        }
+        upload.future.complete(texture);
+    }
+
+    private Texture upload(DecodedImage image, int tileSize) {
+        if (image.isMapped()) {
+            // a cache file: the pages go to the driver straight from the mapping, copying them into
+            // a PBO first would only add a copy. TextureCache already paged it in on the worker, and
+            // finish() drops the mapping as soon as this returns
+            int id = Texture.createTextureObject();
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, image.width, image.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, image.pixels);
+            return new Texture(id, image.width, image.height, tileSize);
+        }
+
+        long bytes = (long) image.width * image.height * 4;
+        if (pboID == 0) {
+            pboID = glGenBuffers();
+        }
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pboID);
+        try {
+            // orphan, so an upload still reading the last image doesn't have to finish first
+            glBufferData(GL_PIXEL_UNPACK_BUFFER, bytes, GL_STREAM_DRAW);
+            ByteBuffer dest = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, bytes, GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+            if (dest == null) {
+                throw new RuntimeException("Could not map pixel unpack buffer");
+            }
+            MemoryUtil.memCopy(MemoryUtil.memAddress(image.pixels), MemoryUtil.memAddress(dest), bytes);
+            glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+
+            int id = Texture.createTextureObject();
+            // reads from the bound PBO at offset 0 instead of client memory, so the copy can happen later
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, image.width, image.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+            return new Texture(id, image.width, image.height, tileSize);
+        } finally {
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+        }
+    }
+
+    // GL thread. images decoded but not uploaded yet are freed, their textures fail
+    public void dispose() {
+        workers.shutdownNow();
+        try {
+            // a decode that's already running isn't interruptible, let it finish and queue its image
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("Asset loader threads still decoding after dispose, their images will leak");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingUpload upload;
+        while ((upload = ready.poll()) != null) {
+            pending.decrementAndGet();
+            if (upload.image != null) {
+                upload.image.free();
+                upload.image = null;
+            }
+            upload.future.completeExceptionally(upload.failure != null ? upload.failure
+                    : new IllegalStateException("AssetManager was disposed before the texture was uploaded"));
+        }
+        if (pboID != 0) {
+            glDeleteBuffers(pboID);
+            pboID = 0;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package studiosoft.project;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// packs separate images into as few GL textures (pages) as possible at startup, so sprites cut from
+// different files end up on the same texture id and SpriteBatch can draw them in one call.
+//
+//     AtlasPacker packer = new AtlasPacker(2048);
+//     packer.add("frog", frogURL, 32);
+//     packer.add("items", itemsURL, 16);
+//     packer.build();
+//     Sprite frog = new Sprite(packer.get("frog"), 0, 0, 1, 1);
+//
+// get() hands back a Texture region of the page the image landed on, and Texture/Sprite map their
+// UVs through it, so code making sprites doesn't change. images are placed on shelves, tallest first,
+// with a gap between them so NEAREST sampling at an edge can't pick up the neighbour
+public class AtlasPacker {
+    private static final int PADDING = 2;
+
+    private final int pageSize;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Texture> regions = new HashMap<>();
+    private final List<Texture> pages = new ArrayList<>();
+    private int pageCount;
+    private boolean built;
+
+    private static final class Entry {
+        final String name;
+        final int width;
+        final int height;
+        final int tileSize;
+        // freed by build()
+        DecodedImage image;
+        int page;
+        int x;
+        int y;
+
+        Entry(String name, DecodedImage image, int tileSize) {
+            this.name = name;
+            this.image = image;
+            this.width = image.width;
+            this.height = image.height;
+            this.tileSize = tileSize;
+        }
+    }
+
+    // pageSize is the width and height pages can grow to, keep it within GL_MAX_TEXTURE_SIZE
+    public AtlasPacker(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void add(String name, URL png, int tileSize) throws IOException {
+        DecodedImage image = DecodedImage.decodePNG(png);
+        try {
+            add(name, image, tileSize);
+        } catch (RuntimeException e) {
+            image.free();
+            throw e;
+        }
+    }
+
+    // takes ownership of pixels (width * height RGBA, allocated with MemoryUtil), freed by build()
+    public void add(String name, ByteBuffer pixels, int width, int height, int tileSize) {
+        add(name, new DecodedImage(pixels, width, height), tileSize);
+    }
+
+    // eg decoded on AssetManager's workers. takes ownership of the image, freed by build()
+    public void add(String name, DecodedImage image, int tileSize) {
+        int width = image.width;
+        int height = image.height;
+        if (built) {
+            throw new IllegalStateException("AtlasPacker has already been built");
+        }
+        if (width + PADDING > pageSize || height + PADDING > pageSize) {
+            throw new IllegalArgumentException("Image " + name + " (" + width + "x" + height
+                    + ") doesn't fit on a " + pageSize + " atlas page");
+        }
+        for (Entry entry : entries) {
+            if (entry.name.equals(name)) {
+                throw new IllegalArgumentException("Image " + name + " was already added");
+            }
+        }
+        entries.add(new Entry(name, image, tileSize));
+    }
+
+    // works out where every image goes, no GL calls. returns the number of pages needed
+    public int pack() {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort((a, b) -> b.height != a.height ? Integer.compare(b.height, a.height) : Integer.compare(b.width, a.width));
+
+        pageCount = 0;
+        int shelfX = 0;
+        int shelfY = 0;
+        int shelfHeight = 0;
+        for (Entry entry : sorted) {
+            int w = entry.width + PADDING;
+            int h = entry.height + PADDING;
+            if (pageCount == 0) {
+                pageCount = 1;
+            }
+            if (shelfX + w > pageSize) {
+                // next shelf down
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            if (shelfY + h > pageSize) {
+                // page is full
+                pageCount++;
+                shelfX = 0;
+                shelfY = 0;
+                shelfHeight = 0;
+            }
+            entry.page = pageCount - 1;
+            entry.x = shelfX;
+            entry.y = shelfY;
+            shelfX += w;
+            shelfHeight = Math.max(shelfHeight, h);
+        }
+        return pageCount;
+    }
+
+    // packs, uploads a texture per page and makes the regions get() returns. needs a current GL context
+    public void build() {
+        if (built) {
+            throw new IllegalStateException("AtlasPacker has already been built");
+        }
+        pack();
+        for (int page = 0; page < pageCount; page++) {
+            // pages are only as big as what's on them
+            int width = 0;
+            int height = 0;
+            for (Entry entry : entries) {
+                if (entry.page == page) {
+                    width = Math.max(width, entry.x + entry.width);
+                    height = Math.max(height, entry.y + entry.height);
+                }
+            }
+
+            // calloc, so the padding between images is transparent
+            ByteBuffer pixels = MemoryUtil.memCalloc(width * height * 4);
+            try {
+                for (Entry entry : entries) {
+                    if (entry.page == page) {
+                        copyInto(pixels, width, entry);
+                    }
+                }
+                Texture texture = new Texture(pixels, width, height, 1);
+                pages.add(texture);
+                for (Entry entry : entries) {
+                    if (entry.page == page) {
+                        regions.put(entry.name, new Texture(texture, entry.x, entry.y, entry.width, entry.height, entry.tileSize));
+                    }
+                }
+            } finally {
+                MemoryUtil.memFree(pixels);
+            }
+        }
+
+        for (Entry entry : entries) {
+            entry.image.free();
+            entry.image = null;
+        }
+        built = true;
+    }
+
+    private static void copyInto(ByteBuffer page, int pageWidth, Entry entry) {
+        int rowBytes = entry.width * 4;
+        for (int row = 0; row < entry.height; row++) {
+            long src = MemoryUtil.memAddress(entry.image.pixels) + (long) row * rowBytes;
+            long dst = MemoryUtil.memAddress(page) + ((long) (entry.y + row) * pageWidth + entry.x) * 4;
+            MemoryUtil.memCopy(src, dst, rowBytes);
+        }
+    }
+
+    // the region an added image ended up as, after build()
+    public Texture get(String name) {
+        Texture region = regions.get(name);
+        if (region == null) {
+            throw new IllegalArgumentException(built ? "No image called " + name + " was packed" : "AtlasPacker hasn't been built yet");
+        }
+        return region;
+    }
+
+    public List<Texture> getPages() {
+        return pages;
+    }
+
+    public void dispose() {
+        for (Texture page : pages) {
+            GLState.deleteTexture(page.id);
+        }
+        pages.clear();
+        regions.clear();
+    }
+}
@@ -1,17 +1,21 @@
 package studiosoft.project;
 
 import org.joml.Matrix4f;
+import org.joml.primitives.Rectanglef;
 
 public class Camera {
     public float worldX;
     public float worldY;
     public float zoom = 1.0f;
-    private Matrix4f viewMatrix;
+    // rebuilt only when the position or zoom it was built for changes
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private float viewX = Float.NaN;
+    private float viewY = Float.NaN;
+    private float viewZoom = Float.NaN;
 
     public Camera(float startX, float startY) {
         this.worldX = startX;
         this.worldY = startY;
-        this.viewMatrix = new Matrix4f();
     }
 
     public Camera(float startX, float startY, float zoom) {
@@ -20,8 +24,24 @@ public class Camera {
         this.zoom = zoom;
     }
 
+    // shared and reused, don't modify it
     public Matrix4f getViewMatrix() {
-        viewMatrix = new Matrix4f().translate(-this.worldX, -this.worldY, 0).scale(this.zoom);
+        if (worldX != viewX || worldY != viewY || zoom != viewZoom) {
+            viewMatrix.translation(-this.worldX, -this.worldY, 0).scale(this.zoom);
+            viewX = worldX;
+            viewY = worldY;
+            viewZoom = zoom;
+        }
         return viewMatrix;
     }
+
+    // the world-space rectangle visible through a viewport of the given size in pixels.
+    // inverse of the view matrix: screen = world * zoom - cameraPos
+    public Rectanglef getViewBounds(float viewportWidth, float viewportHeight, Rectanglef dest) {
+        dest.minX = worldX / zoom;
+        dest.minY = worldY / zoom;
+        dest.maxX = (worldX + viewportWidth) / zoom;
+        dest.maxY = (worldY + viewportHeight) / zoom;
+        return dest;
+    }
 }
@@ -0,0 +1,7 @@
+package studiosoft.project;
+
+// per-entity callback for World.forEach. row is the entity's index into the columns
+@FunctionalInterface
+public interface ColumnAction<C> {
+    void accept(int entityID, int row, C columns);
+}
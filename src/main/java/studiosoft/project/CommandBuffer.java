@@ -0,0 +1,135 @@
+package studiosoft.project;
+
+import java.util.Arrays;
+
+// records structural changes (create, destroy, add component, remove component) while systems
+// are running, so nothing reshuffles the storages under a loop that's iterating them.
+// everything recorded is applied in one go by World.flushCommands at a sync point in the frame.
+//
+// each system should own its own buffer (World.createCommandBuffer), then recording never
+// needs a lock even when systems run in parallel.
+public class CommandBuffer {
+    private static final int CREATE = 0;
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int DESTROY = 3;
+
+    private final World world;
+
+    // one entry per recorded command, in recording order
+    private int[] ops = new int[16];
+    private int[] entityIDs = new int[16];
+    private int[] generations = new int[16];
+    // the component for ADD, the component class for REMOVE
+    private Object[] payloads = new Object[16];
+    private int count;
+
+    // scratch for sorting at apply time: (storage index << 32) | command index
+    private long[] sortKeys = new long[16];
+
+    CommandBuffer(World world) {
+        this.world = world;
+    }
+
+    // the ID is reserved straight away so components can be recorded against it,
+    // but the entity only comes alive when the buffer is applied
+    public Entity createEntity() {
+        Entity entity = world.reserveEntity();
+        record(CREATE, entity.id, entity.generation, null);
+        return entity;
+    }
+
+    public void destroyEntity(Entity entity) {
+        record(DESTROY, entity.id, entity.generation, null);
+    }
+
+    public <T> void addComponent(Entity entity, T component) {
+        record(ADD, entity.id, entity.generation, component);
+    }
+
+    public <T> void removeComponent(Entity entity, Class<T> componentType) {
+        record(REMOVE, entity.id, entity.generation, componentType);
+    }
+
+    // overloads for the raw IDs systems get out of queries, pinned to the entity's current generation
+    public void destroyEntity(int entityID) {
+        record(DESTROY, entityID, world.getGeneration(entityID), null);
+    }
+
+    public <T> void addComponent(int entityID, T component) {
+        record(ADD, entityID, world.getGeneration(entityID), component);
+    }
+
+    public <T> void removeComponent(int entityID, Class<T> componentType) {
+        record(REMOVE, entityID, world.getGeneration(entityID), componentType);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // creates first, then component adds/removes sorted by component type (keeping recording
+    // order within a type), then destroys. commands for a handle that's gone stale by the time
+    // they're applied are dropped
+    void apply() {
+        if (count == 0) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (ops[i] == CREATE) {
+                world.activateEntity(entityIDs[i], generations[i]);
+            }
+        }
+
+        int sorted = 0;
+        for (int i = 0; i < count; i++) {
+            if (ops[i] == ADD || ops[i] == REMOVE) {
+                Class<?> type = ops[i] == ADD ? payloads[i].getClass() : (Class<?>) payloads[i];
+                long storageIndex = world.getStorage(type).getIndex();
+                sortKeys[sorted++] = (storageIndex << 32) | i;
+            }
+        }
+        Arrays.sort(sortKeys, 0, sorted);
+        for (int k = 0; k < sorted; k++) {
+            int i = (int) sortKeys[k];
+            if (!world.isAlive(entityIDs[i], generations[i])) {
+                continue;
+            }
+            if (ops[i] == ADD) {
+                world.addComponent(entityIDs[i], payloads[i]);
+            } else {
+                world.removeComponent(entityIDs[i], (Class<?>) payloads[i]);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (ops[i] == DESTROY && world.isAlive(entityIDs[i], generations[i])) {
+                world.destroyEntity(entityIDs[i]);
+            }
+        }
+
+        clear();
+    }
+
+    private void clear() {
+        Arrays.fill(payloads, 0, count, null);
+        count = 0;
+    }
+
+    private void record(int op, int entityID, int generation, Object payload) {
+        if (count == ops.length) {
+            int newCapacity = ops.length * 2;
+            ops = Arrays.copyOf(ops, newCapacity);
+            entityIDs = Arrays.copyOf(entityIDs, newCapacity);
+            generations = Arrays.copyOf(generations, newCapacity);
+            payloads = Arrays.copyOf(payloads, newCapacity);
+            sortKeys = Arrays.copyOf(sortKeys, newCapacity);
+        }
+        ops[count] = op;
+        entityIDs[count] = entityID;
+        generations[count] = generation;
+        payloads[count] = payload;
+        count++;
+    }
+}
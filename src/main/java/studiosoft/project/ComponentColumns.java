@@ -0,0 +1,18 @@
+package studiosoft.project;
+
+// struct-of-arrays layout for a component type. instead of one heap object per entity,
+// each field of the component gets its own primitive array and an entity's data lives at
+// the same row in every one of them. see World.registerColumns and World.forEach.
+public interface ComponentColumns<T> {
+    // grow every column so rows [0, capacity) are valid
+    void ensureCapacity(int capacity);
+
+    // scatter the fields of the component into the given row
+    void write(int row, T component);
+
+    // copy row `from` over row `to`, used to keep the columns packed when a row is removed
+    void move(int from, int to);
+
+    // gather the given row back into a standalone component (a copy, writes to it don't stick)
+    T read(int row);
+}
@@ -0,0 +1,252 @@
+package studiosoft.project;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// sparse set storage for a single component type.
+// sparse[entityID] is the index of that entity's component in the dense arrays (or -1 if it has none),
+// and the dense arrays are kept tightly packed so looping over a component type walks contiguous memory.
+// entity IDs stay as plain ints the whole way through, nothing gets boxed.
+//
+// every row also carries the world change tick it was last written at, so systems can pick out
+// just the components that changed since they last looked (see World.advanceChangeTick).
+//
+// a storage can also be switched to a columnar layout (see ComponentColumns), in which case the
+// component's fields live in the columns at the dense index and no per-entity objects are kept.
+public class ComponentStorage<T> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final World world;
+    private final Class<T> type;
+    // position of this storage in the world's storage list, stable for the world's lifetime
+    private final int index;
+
+    // entityID -> dense index
+    private int[] sparse;
+    // dense index -> entityID
+    private int[] denseEntities;
+    // dense index -> component instance
+    private T[] dense;
+    // dense index -> change tick the component was added or last marked changed at
+    private int[] changeTicks;
+    private int size;
+
+    // non-null when this type is stored as columns instead of objects
+    private ComponentColumns<T> columns;
+
+    // queries that include this type and need to hear about components coming and going
+    private Query[] queries = new Query[0];
+    // anything else that needs to know when a component goes away (eg indexes built from it)
+    private IntConsumer[] removeListeners = new IntConsumer[0];
+
+    @SuppressWarnings("unchecked")
+    public ComponentStorage(World world, Class<T> type, int index) {
+        this.world = world;
+        this.type = type;
+        this.index = index;
+        this.sparse = new int[INITIAL_CAPACITY];
+        Arrays.fill(sparse, -1);
+        this.denseEntities = new int[INITIAL_CAPACITY];
+        this.dense = (T[]) new Object[INITIAL_CAPACITY];
+        this.changeTicks = new int[INITIAL_CAPACITY];
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public ComponentColumns<T> getColumns() {
+        return columns;
+    }
+
+    void setColumns(ComponentColumns<T> columns) {
+        if (size > 0) {
+            throw new IllegalStateException("Columns for " + type.getSimpleName()
+                    + " must be registered before any are added");
+        }
+        columns.ensureCapacity(dense.length);
+        this.columns = columns;
+    }
+
+    public boolean has(int entityID) {
+        return entityID < sparse.length && sparse[entityID] != -1;
+    }
+
+    // O(1) lookup, returns null if the entity doesn't have this component.
+    // for a columnar storage this is a fresh copy of the row, go through the columns to write
+    public T get(int entityID) {
+        if (entityID >= sparse.length) {
+            return null;
+        }
+        int index = sparse[entityID];
+        if (index == -1) {
+            return null;
+        }
+        return columns != null ? columns.read(index) : dense[index];
+    }
+
+    // adds the component, or replaces the existing one if the entity already has this type
+    public void put(int entityID, T component) {
+        ensureSparseCapacity(entityID + 1);
+        int index = sparse[entityID];
+        if (index != -1) {
+            store(index, component);
+            return;
+        }
+
+        if (size == dense.length) {
+            int newCapacity = dense.length * 2;
+            dense = Arrays.copyOf(dense, newCapacity);
+            denseEntities = Arrays.copyOf(denseEntities, newCapacity);
+            changeTicks = Arrays.copyOf(changeTicks, newCapacity);
+            if (columns != null) {
+                columns.ensureCapacity(newCapacity);
+            }
+        }
+        sparse[entityID] = size;
+        denseEntities[size] = entityID;
+        store(size, component);
+        size++;
+
+        for (Query query : queries) {
+            query.onComponentAdded(entityID);
+        }
+    }
+
+    // swap-remove: the last component moves into the freed slot so the dense arrays stay packed.
+    // returns false if the entity didn't have this component
+    public boolean remove(int entityID) {
+        int index = indexOf(entityID);
+        if (index == -1) {
+            return false;
+        }
+
+        int lastIndex = size - 1;
+        if (index != lastIndex) {
+            int lastEntity = denseEntities[lastIndex];
+            denseEntities[index] = lastEntity;
+            sparse[lastEntity] = index;
+            changeTicks[index] = changeTicks[lastIndex];
+            if (columns != null) {
+                columns.move(lastIndex, index);
+            } else {
+                dense[index] = dense[lastIndex];
+            }
+        }
+        dense[lastIndex] = null;
+        sparse[entityID] = -1;
+        size--;
+
+        for (Query query : queries) {
+            query.onComponentRemoved(entityID);
+        }
+        for (IntConsumer listener : removeListeners) {
+            listener.accept(entityID);
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // flag the entity's component as changed as of the current tick. needed after writing to a
+    // component in place (fields or columns), since the storage can't see those writes itself
+    public void markChanged(int entityID) {
+        int index = indexOf(entityID);
+        if (index != -1) {
+            changeTicks[index] = world.getChangeTick();
+        }
+    }
+
+    // same as markChanged, for when the dense row is already at hand (eg inside World.forEach)
+    public void markChangedAt(int index) {
+        changeTicks[index] = world.getChangeTick();
+    }
+
+    // true if the entity has this component and it was added or changed after the given tick
+    public boolean changedSince(int entityID, int tick) {
+        int index = indexOf(entityID);
+        return index != -1 && changeTicks[index] > tick;
+    }
+
+    public int getChangeTickAt(int index) {
+        return changeTicks[index];
+    }
+
+    // every entity whose component was added or changed after the given tick
+    public void forEachChangedSince(int tick, IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            if (changeTicks[i] > tick) {
+                action.accept(denseEntities[i]);
+            }
+        }
+    }
+
+    // dense index of the entity's component, or -1
+    public int indexOf(int entityID) {
+        return entityID < sparse.length ? sparse[entityID] : -1;
+    }
+
+    public int getEntity(int index) {
+        return denseEntities[index];
+    }
+
+    public T getAt(int index) {
+        return columns != null ? columns.read(index) : dense[index];
+    }
+
+    // read-only view over the packed components, no copying
+    public List<T> asList() {
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                if (index >= size) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                return getAt(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private void store(int index, T component) {
+        changeTicks[index] = world.getChangeTick();
+        if (columns != null) {
+            columns.write(index, component);
+        } else {
+            dense[index] = component;
+        }
+    }
+
+    // called with the entity ID whenever this type is removed from an entity
+    public void addRemoveListener(IntConsumer listener) {
+        removeListeners = Arrays.copyOf(removeListeners, removeListeners.length + 1);
+        removeListeners[removeListeners.length - 1] = listener;
+    }
+
+    void addQuery(Query query) {
+        queries = Arrays.copyOf(queries, queries.length + 1);
+        queries[queries.length - 1] = query;
+    }
+
+    private void ensureSparseCapacity(int capacity) {
+        if (capacity <= sparse.length) {
+            return;
+        }
+        int oldLength = sparse.length;
+        int newLength = Math.max(capacity, oldLength * 2);
+        sparse = Arrays.copyOf(sparse, newLength);
+        Arrays.fill(sparse, oldLength, newLength, -1);
+    }
+}
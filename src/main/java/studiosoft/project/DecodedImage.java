@@ -0,0 +1,67 @@
+package studiosoft.project;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+// RGBA pixels of an image, off-heap and not on the GPU yet. makes no GL calls, so it can be
+// decoded on any thread. whoever ends up with it frees it (AtlasPacker and AssetManager do)
+public class DecodedImage {
+    public final int width;
+    public final int height;
+    // width * height * 4 bytes, top row first. null after free()
+    public ByteBuffer pixels;
+    // false when pixels aren't ours to free, eg a file mapped by TextureCache
+    private final boolean owned;
+
+    // pixels allocated with MemoryUtil, freed by free()
+    public DecodedImage(ByteBuffer pixels, int width, int height) {
+        this(pixels, width, height, true);
+    }
+
+    public DecodedImage(ByteBuffer pixels, int width, int height, boolean owned) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.owned = owned;
+    }
+
+    // mapped straight from a cache file rather than decoded into memory of its own
+    public boolean isMapped() {
+        return !owned;
+    }
+
+    public static DecodedImage decodePNG(URL source) throws IOException {
+        try (InputStream input = source.openStream()) {
+            return decodePNG(input);
+        }
+    }
+
+    public static DecodedImage decodePNG(InputStream input) throws IOException {
+        PNGDecoder decoder = new PNGDecoder(input);
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        ByteBuffer pixels = MemoryUtil.memAlloc(width * height * 4);
+        try {
+            decoder.decode(pixels, width * 4, PNGDecoder.Format.RGBA);
+        } catch (IOException | RuntimeException e) {
+            MemoryUtil.memFree(pixels);
+            throw e;
+        }
+        pixels.flip();
+        return new DecodedImage(pixels, width, height);
+    }
+
+    // a mapped image can't be unmapped by hand, dropping the reference here lets the next GC that
+    // collects the mapping unmap it and release the file
+    public void free() {
+        if (owned && pixels != null) {
+            MemoryUtil.memFree(pixels);
+        }
+        pixels = null;
+    }
+}
@@ -1,15 +1,39 @@
 package studiosoft.project;
 
+// a handle to an entity. IDs get recycled once an entity is destroyed, so the handle also
+// carries the generation it was created with - a stale handle to a recycled ID is never alive
 public class Entity {
     private final World world;
     public final int id;
+    public final int generation;
 
-    public Entity(int id, World world) {
+    public Entity(int id, int generation, World world) {
         this.world = world;
         this.id = id;
+        this.generation = generation;
+    }
+
+    public boolean isAlive() {
+        return world.isAlive(id, generation);
     }
 
     public <T> void addComponent(T component){
+        checkAlive();
         world.addComponent(this.id, component);
     }
+
+    public <T> void removeComponent(Class<T> componentType){
+        checkAlive();
+        world.removeComponent(this.id, componentType);
+    }
+
+    public void destroy(){
+        world.destroyEntity(this);
+    }
+
+    private void checkAlive(){
+        if(!isAlive()){
+            throw new IllegalStateException("Entity " + id + " (generation " + generation + ") has been destroyed");
+        }
+    }
 }
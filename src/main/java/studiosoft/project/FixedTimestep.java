@@ -0,0 +1,45 @@
+package studiosoft.project;
+
+// accumulator for running the simulation at a fixed tick rate no matter how fast frames come in.
+// each frame feed in the real elapsed time, run the number of ticks it hands back, then render
+// using getAlpha() to blend between the previous and current simulation states.
+public class FixedTimestep {
+    private final double tickSeconds;
+    // most ticks run in one frame. after a long hitch the rest of the backlog is dropped
+    // instead of trying to catch up (which would only make the next frame longer still)
+    private final int maxTicksPerFrame;
+
+    private double accumulator;
+    private float alpha;
+
+    public FixedTimestep(int ticksPerSecond, int maxTicksPerFrame) {
+        if (ticksPerSecond <= 0 || maxTicksPerFrame <= 0) {
+            throw new IllegalArgumentException("Tick rate and max ticks per frame must be positive");
+        }
+        this.tickSeconds = 1.0 / ticksPerSecond;
+        this.maxTicksPerFrame = maxTicksPerFrame;
+    }
+
+    // returns how many simulation ticks to run for this frame
+    public int advance(double frameSeconds) {
+        accumulator += frameSeconds;
+        int ticks = (int) (accumulator / tickSeconds);
+        if (ticks > maxTicksPerFrame) {
+            ticks = maxTicksPerFrame;
+            accumulator %= tickSeconds;
+        } else {
+            accumulator -= ticks * tickSeconds;
+        }
+        alpha = (float) (accumulator / tickSeconds);
+        return ticks;
+    }
+
+    public float getTickSeconds() {
+        return (float) tickSeconds;
+    }
+
+    // how far between the last tick and the next one the current frame sits, 0 to 1
+    public float getAlpha() {
+        return alpha;
+    }
+}
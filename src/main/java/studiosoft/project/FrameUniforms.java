@@ -0,0 +1,82 @@
+package studiosoft.project;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+
+// the per frame values every shader wants (projection, view, time, viewport), in one uniform buffer
+// that's uploaded once a frame and shared by all programs, instead of a projection/view uniform per
+// program set from every system that binds one. a shader opts in by declaring the block:
+//
+//     layout (std140) uniform FrameData {
+//         mat4 projection;
+//         mat4 view;
+//         vec4 viewport;  // xy = size in pixels
+//         float time;     // seconds since the window opened
+//     };
+//
+// and ShaderProgram points it at BINDING when it links
+public class FrameUniforms {
+    public static final String BLOCK_NAME = "FrameData";
+    public static final int BINDING = 0;
+
+    // std140 offsets, matching the block above
+    private static final int PROJECTION_OFFSET = 0;
+    private static final int VIEW_OFFSET = 64;
+    private static final int VIEWPORT_OFFSET = 128;
+    private static final int TIME_OFFSET = 144;
+    // rounded up to a whole vec4
+    private static final int SIZE = 160;
+
+    private final int bufferID;
+    private final ByteBuffer data;
+
+    // for render systems to check the program they were handed. projection/view only reach a shader
+    // through the block, so one without it would draw everything through a zero matrix and show nothing.
+    // null is let through for systems built without GL (headless runs, benchmarks)
+    public static ShaderProgram requireBlock(ShaderProgram program) {
+        if (program != null && !program.usesFrameUniforms()) {
+            throw new IllegalArgumentException("Shader program " + program.getProgramId()
+                    + " doesn't declare the " + BLOCK_NAME + " uniform block");
+        }
+        return program;
+    }
+
+    // needs a current GL context
+    public FrameUniforms() {
+        data = MemoryUtil.memCalloc(SIZE);
+        bufferID = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferID);
+        glBufferData(GL_UNIFORM_BUFFER, SIZE, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        // stays attached to the binding point for good, programs just refer to it
+        glBindBufferBase(GL_UNIFORM_BUFFER, BINDING, bufferID);
+    }
+
+    // once a frame, before anything draws
+    public void update(Matrix4f projection, Matrix4f view, float time, int viewportWidth, int viewportHeight) {
+        projection.get(PROJECTION_OFFSET, data);
+        view.get(VIEW_OFFSET, data);
+        data.putFloat(VIEWPORT_OFFSET, viewportWidth);
+        data.putFloat(VIEWPORT_OFFSET + 4, viewportHeight);
+        data.putFloat(TIME_OFFSET, time);
+
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferID);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    public int getBufferID() {
+        return bufferID;
+    }
+
+    public void dispose() {
+        glDeleteBuffers(bufferID);
+        MemoryUtil.memFree(data);
+    }
+}
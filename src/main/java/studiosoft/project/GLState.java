@@ -0,0 +1,135 @@
+package studiosoft.project;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL20.glDeleteProgram;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+
+// remembers what's bound so binding the same program, VAO, texture or blend state again is skipped
+// instead of going to the driver. there's one GL context and it's only touched from the main thread,
+// so this is all static.
+//
+// it only works if everything binds through here: a raw glUseProgram/glBindVertexArray/glBindTexture
+// or glEnable(GL_BLEND) behind its back leaves it out of date (call invalidate() after code like that).
+// deleting through here matters too, GL unbinds a deleted object and its id can be handed out again
+public final class GLState {
+    // more than the game uses, GL guarantees at least 16 per stage
+    private static final int TEXTURE_UNITS = 16;
+    private static final int UNKNOWN = -1;
+
+    private static int program = UNKNOWN;
+    private static int vertexArray = UNKNOWN;
+    private static int activeUnit = UNKNOWN;
+    private static final int[] textures = new int[TEXTURE_UNITS];
+    private static int blend = UNKNOWN;
+    private static int blendSrc = UNKNOWN;
+    private static int blendDst = UNKNOWN;
+
+    static {
+        Arrays.fill(textures, UNKNOWN);
+    }
+
+    private GLState() {
+    }
+
+    public static void useProgram(int id) {
+        if (program != id) {
+            glUseProgram(id);
+            program = id;
+        }
+    }
+
+    public static int getProgram() {
+        return program;
+    }
+
+    public static void bindVertexArray(int id) {
+        if (vertexArray != id) {
+            glBindVertexArray(id);
+            vertexArray = id;
+        }
+    }
+
+    // texture on the active unit
+    public static void bindTexture(int id) {
+        if (activeUnit == UNKNOWN) {
+            activeTexture(0);
+        }
+        if (textures[activeUnit] != id) {
+            glBindTexture(GL_TEXTURE_2D, id);
+            textures[activeUnit] = id;
+        }
+    }
+
+    // makes unit active and binds the texture there. the unit stays active afterwards
+    public static void bindTexture(int unit, int id) {
+        activeTexture(unit);
+        bindTexture(id);
+    }
+
+    public static void activeTexture(int unit) {
+        if (activeUnit != unit) {
+            glActiveTexture(GL_TEXTURE0 + unit);
+            activeUnit = unit;
+        }
+    }
+
+    public static void setBlend(boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if (blend != value) {
+            if (enabled) {
+                glEnable(GL_BLEND);
+            } else {
+                glDisable(GL_BLEND);
+            }
+            blend = value;
+        }
+    }
+
+    public static void blendFunc(int src, int dst) {
+        if (blendSrc != src || blendDst != dst) {
+            glBlendFunc(src, dst);
+            blendSrc = src;
+            blendDst = dst;
+        }
+    }
+
+    public static void deleteProgram(int id) {
+        glDeleteProgram(id);
+        if (program == id) {
+            program = 0;
+        }
+    }
+
+    public static void deleteVertexArray(int id) {
+        glDeleteVertexArrays(id);
+        if (vertexArray == id) {
+            vertexArray = 0;
+        }
+    }
+
+    public static void deleteTexture(int id) {
+        glDeleteTextures(id);
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            if (textures[i] == id) {
+                textures[i] = 0;
+            }
+        }
+    }
+
+    // forget everything, the next bind of each kind always goes through
+    public static void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        activeUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        blend = UNKNOWN;
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+    }
+}
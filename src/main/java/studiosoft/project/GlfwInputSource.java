@@ -0,0 +1,23 @@
+package studiosoft.project;
+
+import static org.lwjgl.glfw.GLFW.GLFW_PRESS;
+import static org.lwjgl.glfw.GLFW.glfwGetKey;
+
+public class GlfwInputSource implements InputSource {
+    private final long window;
+
+    public GlfwInputSource(long window) {
+        this.window = window;
+    }
+
+    @Override
+    public boolean isKeyDown(int key) {
+        return glfwGetKey(window, key) == GLFW_PRESS;
+    }
+
+    // glfwGetKey is only allowed on the main thread
+    @Override
+    public boolean requiresMainThread() {
+        return true;
+    }
+}
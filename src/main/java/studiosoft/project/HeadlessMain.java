@@ -0,0 +1,300 @@
+package studiosoft.project;
+
+import org.lwjgl.BufferUtils;
+import studiosoft.project.components.LevelRenderData;
+import studiosoft.project.components.PlayerInput;
+import studiosoft.project.components.Position;
+import studiosoft.project.components.PositionColumns;
+import studiosoft.project.components.Renderable;
+import studiosoft.project.components.TilemapRenderable;
+import studiosoft.project.profiling.AllocationGuard;
+import studiosoft.project.profiling.FrameProfiler;
+import studiosoft.project.systems.PlayerInputSystem;
+import studiosoft.project.systems.PositionHistorySystem;
+import studiosoft.project.systems.RenderSystem;
+import studiosoft.project.systems.SpatialIndexSystem;
+import studiosoft.project.systems.SystemScheduler;
+import studiosoft.project.systems.TilemapRenderSystem;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_A;
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_D;
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_S;
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_W;
+
+// runs the simulation with no window or GL context, as fast as it'll go, and reports ticks per second.
+// meant for soak testing on machines with no display or GPU, eg:
+//     java -cp <classpath> studiosoft.project.HeadlessMain --entities=100000 --ticks=10000 --churn=500
+//
+//   --entities  how many moving entities to spawn (default 100000)
+//   --ticks     how many ticks to measure (default 10000)
+//   --warmup    ticks to run first and throw away, so the JIT settles (default 1000)
+//   --churn     entities destroyed and respawned every tick, like projectiles/particles (default 0)
+//   --profile   1 to print per-system p50/p99/max over the measured ticks (default 0)
+//   --check-alloc  after the run, this many more ticks must not allocate anything on the ticking
+//                  thread or it exits with an error (default 0, off). each tick is followed by the CPU
+//                  side of a render frame (camera, culling, sprite batches, tilemap vertices), checked
+//                  the same way. a pass of at least 10000 ticks runs first, unchecked, to let the JIT
+//                  settle. needs --churn=0, since churn creates new components on purpose.
+//                  systems run inline so their allocations count too
+public class HeadlessMain {
+    // same fixed tick length the windowed game uses by default
+    private static final float TICK_SECONDS = 1f / 60f;
+    private static final float SPAWN_AREA = 10000f;
+    private static final float CELL_SIZE = 64f;
+    // same window the game opens
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 640;
+    private static final int TILEMAP_SIZE = 256;
+    // frames run after the render side is set up and before it's checked, its batches grow to size here
+    private static final int RENDER_WARMUP_FRAMES = 200;
+    // shortest settling pass for checkAllocations. with few entities the last C2 compiles come a few
+    // thousand ticks in
+    private static final int ALLOCATION_SETTLE_TICKS = 10_000;
+
+    private final int entityCount;
+    private final int churnPerTick;
+    private final boolean inlineSystems;
+
+    private World world;
+    private SystemScheduler scheduler;
+    private ScriptedInputSource input;
+    private CommandBuffer commands;
+    private Entity[] spawned;
+    private SpatialGrid spatialGrid;
+    private final Random random = new Random(42);
+
+    // CPU side of a render frame, with no GL context. only set up by checkAllocations
+    private Camera camera;
+    private RenderSystem renderSystem;
+    private RenderSystem instancedRenderSystem;
+    private TilemapRenderable tilemap;
+    private Texture tileAtlas;
+    private FloatBuffer chunkVertices;
+
+    public HeadlessMain(int entityCount, int churnPerTick) {
+        this(entityCount, churnPerTick, false);
+    }
+
+    // inlineSystems runs every system on the calling thread instead of the common pool
+    public HeadlessMain(int entityCount, int churnPerTick, boolean inlineSystems) {
+        this.entityCount = entityCount;
+        this.churnPerTick = churnPerTick;
+        this.inlineSystems = inlineSystems;
+    }
+
+    public static void main(String[] args) {
+        int entities = 100_000;
+        int ticks = 10_000;
+        int warmup = 1_000;
+        int churn = 0;
+        int profile = 0;
+        int checkAlloc = 0;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            int value = Integer.parseInt(parts[1]);
+            switch (parts[0]) {
+                case "--entities" -> entities = value;
+                case "--ticks" -> ticks = value;
+                case "--warmup" -> warmup = value;
+                case "--churn" -> churn = value;
+                case "--profile" -> profile = value;
+                case "--check-alloc" -> checkAlloc = value;
+                default -> throw new IllegalArgumentException("Unknown option: " + parts[0]);
+            }
+        }
+
+        if (checkAlloc > 0 && churn > 0) {
+            throw new IllegalArgumentException("--check-alloc needs --churn=0");
+        }
+
+        HeadlessMain runner = new HeadlessMain(entities, churn, checkAlloc > 0);
+        runner.init();
+
+        System.out.println("Headless run: " + entities + " entities, " + churn + " churn/tick, "
+                + warmup + " warmup ticks, " + ticks + " measured ticks");
+        runner.runTicks(warmup);
+
+        FrameProfiler profiler = null;
+        if (profile != 0) {
+            profiler = new FrameProfiler(ticks);
+            runner.scheduler.setProfiler(profiler);
+        }
+
+        long start = System.nanoTime();
+        runner.runTicks(ticks);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d ticks in %.3f s: %.1f ticks/s, %.1f us/tick, %.0f entity updates/s%n",
+                ticks, seconds, ticks / seconds, seconds * 1e6 / ticks, (double) ticks * entities / seconds);
+        if (profiler != null) {
+            profiler.dump(System.out);
+        }
+
+        if (checkAlloc > 0) {
+            runner.checkAllocations(checkAlloc);
+        }
+    }
+
+    // builds the world with only the non-render systems, input coming from a script
+    public void init() {
+        world = new World();
+        world.registerColumns(Position.class, new PositionColumns());
+        spatialGrid = new SpatialGrid(CELL_SIZE);
+
+        // walk a square: up, right, down, left
+        input = new ScriptedInputSource(30,
+                new int[]{GLFW_KEY_W}, new int[]{GLFW_KEY_D}, new int[]{GLFW_KEY_S}, new int[]{GLFW_KEY_A});
+
+        scheduler = inlineSystems ? new SystemScheduler(Runnable::run) : new SystemScheduler();
+        scheduler.addSystem(new PositionHistorySystem(world));
+        scheduler.addSystem(new PlayerInputSystem(world, input));
+        scheduler.addSystem(new SpatialIndexSystem(world, spatialGrid));
+
+        commands = world.createCommandBuffer();
+        spawned = new Entity[entityCount];
+        for (int i = 0; i < entityCount; i++) {
+            spawned[i] = world.createEntity();
+            spawned[i].addComponent(randomPosition());
+            spawned[i].addComponent(new PlayerInput(50f + random.nextFloat() * 100f));
+        }
+    }
+
+    public void runTicks(int ticks) {
+        for (int t = 0; t < ticks; t++) {
+            input.nextTick();
+            scheduler.update(TICK_SECONDS);
+            churn();
+            world.flushCommands();
+        }
+    }
+
+    // steady state ticks and render frames should make no garbage, throws if any of them did.
+    // the first pass only lets the JIT settle and what it allocated is just reported: the first time C2
+    // compiles a method, HotSpot resolves every string constant of its class on the thread that asked
+    // for the compile, so a tick can allocate a few hundred bytes once. the second pass has to be clean
+    public void checkAllocations(int ticks) {
+        setupRenderPath();
+        for (int i = 0; i < RENDER_WARMUP_FRAMES; i++) {
+            runTicks(1);
+            renderFrame();
+        }
+
+        AllocationGuard guard = new AllocationGuard();
+        String settling = checkAllocationPass(guard, Math.max(ticks, ALLOCATION_SETTLE_TICKS));
+        if (settling != null) {
+            System.out.println("Allocation check settling pass, ignored: " + settling);
+        }
+        String failure = checkAllocationPass(guard, ticks);
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+        System.out.println("Allocation check passed: " + ticks + " ticks and render frames allocated nothing");
+    }
+
+    // null if nothing allocated, otherwise what did
+    private String checkAllocationPass(AllocationGuard guard, int ticks) {
+        int allocatingTicks = 0;
+        int allocatingFrames = 0;
+        long worstTickBytes = 0;
+        long worstFrameBytes = 0;
+        for (int t = 0; t < ticks; t++) {
+            guard.begin();
+            runTicks(1);
+            long bytes = guard.end();
+            if (bytes > 0) {
+                allocatingTicks++;
+                worstTickBytes = Math.max(worstTickBytes, bytes);
+            }
+
+            guard.begin();
+            renderFrame();
+            bytes = guard.end();
+            if (bytes > 0) {
+                allocatingFrames++;
+                worstFrameBytes = Math.max(worstFrameBytes, bytes);
+            }
+        }
+        if (allocatingTicks == 0 && allocatingFrames == 0) {
+            return null;
+        }
+        return allocatingTicks + " of " + ticks + " steady state ticks allocated (worst "
+                + worstTickBytes + " bytes), " + allocatingFrames + " of " + ticks
+                + " render frames allocated (worst " + worstFrameBytes + " bytes)";
+    }
+
+    // the renderers' CPU work, like RenderSystemBenchmark. texture id 0 and a null shader are fine,
+    // both are only touched when submitting to GL, which this never does
+    private void setupRenderPath() {
+        Texture texture = new Texture(0, 64, 64, 32);
+        Sprite sprite = new Sprite(texture, 0, 0, 1, 1);
+        for (Entity entity : spawned) {
+            entity.addComponent(new Renderable(sprite));
+        }
+
+        camera = new Camera(SPAWN_AREA / 2f, SPAWN_AREA / 2f, 1f);
+        FixedTimestep timestep = new FixedTimestep(60, 5);
+        renderSystem = new RenderSystem(world, camera, VIEW_WIDTH, VIEW_HEIGHT, null, spatialGrid, timestep);
+        instancedRenderSystem = new RenderSystem(world, camera, VIEW_WIDTH, VIEW_HEIGHT, null, spatialGrid, timestep);
+        instancedRenderSystem.useInstancing(null);
+
+        // 16 tiles in the atlas, used in a repeating pattern with some gaps
+        tileAtlas = new Texture(0, 64, 64, 16);
+        int[][] tiles = new int[TILEMAP_SIZE][TILEMAP_SIZE];
+        for (int y = 0; y < TILEMAP_SIZE; y++) {
+            for (int x = 0; x < TILEMAP_SIZE; x++) {
+                tiles[y][x] = (x + y) % 17 - 1;
+            }
+        }
+        tilemap = new TilemapRenderable(tiles, 16, 16, TILEMAP_SIZE, TILEMAP_SIZE);
+        int chunkTiles = LevelRenderData.CHUNK_SIZE * LevelRenderData.CHUNK_SIZE;
+        chunkVertices = BufferUtils.createFloatBuffer(chunkTiles * TilemapRenderSystem.FLOATS_PER_TILE);
+    }
+
+    // everything RenderSystem and TilemapRenderSystem do on the CPU for a frame, with the camera
+    // panning so the view matrix and the set of visible sprites keep changing
+    private void renderFrame() {
+        camera.worldX = (camera.worldX + 7f) % SPAWN_AREA;
+        camera.worldY = (camera.worldY + 3f) % SPAWN_AREA;
+        camera.getViewMatrix();
+
+        renderSystem.collectVisible();
+        renderSystem.getSpriteBatch().buildVertices();
+        instancedRenderSystem.collectVisible();
+        instancedRenderSystem.getInstancedBatch().buildInstances();
+
+        // rebuild one chunk's vertices, the chunk moving along with the camera
+        int size = LevelRenderData.CHUNK_SIZE;
+        int chunks = TILEMAP_SIZE / size;
+        int chunkX = (int) (camera.worldX / CELL_SIZE) % chunks * size;
+        int chunkY = (int) (camera.worldY / CELL_SIZE) % chunks * size;
+        chunkVertices.clear();
+        TilemapRenderSystem.writeTilemapVertices(tilemap, tileAtlas, chunkX, chunkY, chunkX + size, chunkY + size, chunkVertices);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    // swap some entities out for fresh ones, through the command buffer like a system would
+    private void churn() {
+        for (int i = 0; i < churnPerTick && entityCount > 0; i++) {
+            int slot = random.nextInt(entityCount);
+            commands.destroyEntity(spawned[slot]);
+
+            Entity replacement = commands.createEntity();
+            commands.addComponent(replacement, randomPosition());
+            commands.addComponent(replacement, new PlayerInput(50f + random.nextFloat() * 100f));
+            spawned[slot] = replacement;
+        }
+    }
+
+    private Position randomPosition() {
+        return new Position(random.nextFloat() * SPAWN_AREA, random.nextFloat() * SPAWN_AREA);
+    }
+}
@@ -0,0 +1,13 @@
+package studiosoft.project;
+
+// where systems read the keyboard from. lets the simulation run against a real window
+// (GlfwInputSource) or a script (ScriptedInputSource) without caring which.
+// key codes are the GLFW_KEY_* constants either way
+public interface InputSource {
+    boolean isKeyDown(int key);
+
+    // true if reading this source has to happen on the main thread
+    default boolean requiresMainThread() {
+        return false;
+    }
+}
@@ -0,0 +1,163 @@
+package studiosoft.project;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL31.glDrawArraysInstanced;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+// same job as SpriteBatch, but the GPU expands the quads: one shared unit quad, plus a small
+// per instance record (x, y, width, height, then the UV rect from Sprite.getUVsAsVector).
+// that's 8 floats uploaded per sprite instead of 24. needs shaders/sprite_instanced.vert.
+//
+// still one glDrawArraysInstanced per texture. GL 3.3 has no base instance, so the instance
+// attributes are re-pointed at the start of each texture's run instead
+public class InstancedSpriteBatch {
+    public static final int FLOATS_PER_INSTANCE = 8;
+    private static final int INSTANCE_STRIDE = FLOATS_PER_INSTANCE * Float.BYTES;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final SpriteList list = new SpriteList();
+
+    // only used by buildInstances, flush writes straight into the streaming buffer
+    private FloatBuffer instances;
+
+    // GL objects are made on the first flush
+    private int vaoID;
+    private int quadVboID;
+    private StreamingBuffer stream;
+    private int drawCalls;
+
+    public void begin() {
+        list.clear();
+    }
+
+    public void add(Sprite sprite, float x, float y) {
+        list.add(sprite, x, y);
+    }
+
+    public int size() {
+        return list.count;
+    }
+
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    // the CPU work flush does (sort by texture, one record per sprite) into a plain off-heap buffer. no GL calls
+    public FloatBuffer buildInstances() {
+        if (instances == null || instances.capacity() < list.count * FLOATS_PER_INSTANCE) {
+            instances = BufferUtils.createFloatBuffer(Math.max(list.count, list.capacity()) * FLOATS_PER_INSTANCE);
+        }
+        instances.clear();
+        list.sort();
+        writeInstances(instances);
+        instances.flip();
+        return instances;
+    }
+
+    private void writeInstances(FloatBuffer dest) {
+        for (int i = 0; i < list.count; i++) {
+            int index = list.order[i];
+            Sprite sprite = list.sprites[index];
+            dest.put(list.x[index]).put(list.y[index]).put(sprite.getSizeX()).put(sprite.getSizeY());
+            dest.put(sprite.getU1()).put(sprite.getV1())
+                    .put(sprite.getU2() - sprite.getU1()).put(sprite.getV2() - sprite.getV1());
+        }
+    }
+
+    // expects the instanced shader to be bound with projection/view set
+    public void flush() {
+        drawCalls = 0;
+        if (list.count == 0) {
+            return;
+        }
+        if (vaoID == 0) {
+            createBuffers();
+        }
+
+        list.sort();
+        writeInstances(stream.map(list.count * FLOATS_PER_INSTANCE));
+        long offset = stream.unmap();
+
+        GLState.bindVertexArray(vaoID);
+
+        int count = list.count;
+        int runStart = 0;
+        int runTexture = list.textureAt(0);
+        for (int i = 1; i <= count; i++) {
+            int texture = i < count ? list.textureAt(i) : -1;
+            if (texture != runTexture) {
+                pointInstanceAttributes(offset + (long) runStart * INSTANCE_STRIDE);
+                GLState.bindTexture(0, runTexture);
+                glDrawArraysInstanced(GL_TRIANGLES, 0, 6, i - runStart);
+                drawCalls++;
+                runStart = i;
+                runTexture = texture;
+            }
+        }
+
+        stream.fence();
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    // streaming buffer has to be bound
+    private void pointInstanceAttributes(long offsetBytes) {
+        // position and size (location = 2)
+        glVertexAttribPointer(2, 4, GL_FLOAT, false, INSTANCE_STRIDE, offsetBytes);
+        // UV rect (location = 3)
+        glVertexAttribPointer(3, 4, GL_FLOAT, false, INSTANCE_STRIDE, offsetBytes + 4 * Float.BYTES);
+    }
+
+    private void createBuffers() {
+        vaoID = glGenVertexArrays();
+        GLState.bindVertexArray(vaoID);
+
+        // the unit quad, same corners and winding SpriteBatch writes out
+        float[] quad = {
+                // Position  // UVs
+                0f, 1f,      0f, 1f,
+                0f, 0f,      0f, 0f,
+                1f, 0f,      1f, 0f,
+
+                1f, 0f,      1f, 0f,
+                1f, 1f,      1f, 1f,
+                0f, 1f,      0f, 1f
+        };
+        quadVboID = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, quadVboID);
+        glBufferData(GL_ARRAY_BUFFER, quad, GL_STATIC_DRAW);
+        int stride = 4 * Float.BYTES;
+        glVertexAttribPointer(0, 2, GL_FLOAT, false, stride, 0);
+        glEnableVertexAttribArray(0);
+        glVertexAttribPointer(1, 2, GL_FLOAT, false, stride, 2 * Float.BYTES);
+        glEnableVertexAttribArray(1);
+
+        // instance records are streamed, attributes get pointed at each frame's data in flush
+        stream = new StreamingBuffer(GL_ARRAY_BUFFER, INITIAL_CAPACITY * INSTANCE_STRIDE);
+        glEnableVertexAttribArray(2);
+        glEnableVertexAttribArray(3);
+        glVertexAttribDivisor(2, 1);
+        glVertexAttribDivisor(3, 1);
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLState.bindVertexArray(0);
+    }
+
+    public void dispose() {
+        if (vaoID != 0) {
+            glDeleteBuffers(quadVboID);
+            stream.dispose();
+            GLState.deleteVertexArray(vaoID);
+            vaoID = 0;
+            quadVboID = 0;
+            stream = null;
+        }
+    }
+}
@@ -6,12 +6,23 @@ import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
 import org.lwjgl.system.*;
 import studiosoft.project.components.*;
+import studiosoft.project.profiling.AllocationGuard;
+import studiosoft.project.profiling.FramePhaseEvent;
+import studiosoft.project.profiling.FrameProfiler;
+import studiosoft.project.systems.ECSSystem;
 import studiosoft.project.systems.PlayerInputSystem;
+import studiosoft.project.systems.PositionHistorySystem;
 import studiosoft.project.systems.RenderSystem;
+import studiosoft.project.systems.SpatialIndexSystem;
+import studiosoft.project.systems.SystemScheduler;
 import studiosoft.project.systems.TilemapRenderSystem;
+import studiosoft.project.systems.TilemapTextureRenderSystem;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.nio.*;
 
 import static org.lwjgl.glfw.Callbacks.*;
@@ -24,6 +35,8 @@ public class Main {
 
     // The window handle
     private long window;
+    // textures decode on its workers, and anything loaded mid game gets uploaded a bit each frame
+    private AssetManager assets;
 
     // NEW: Constants for our grid and window dimensions
     // Let's define a grid of 25x20 tiles
@@ -38,6 +51,42 @@ public class Main {
     private static final int WINDOW_WIDTH = GRID_COLS * TILE_WIDTH;   // 800
     private static final int WINDOW_HEIGHT = GRID_ROWS * TILE_HEIGHT; // 640
 
+    // simulation runs at a fixed rate, independent of the display refresh rate.
+    // both can be overridden with -Dgame.tickRate=... / -Dgame.maxCatchUpTicks=...
+    private static final int TICKS_PER_SECOND = Integer.getInteger("game.tickRate", 60);
+    private static final int MAX_CATCH_UP_TICKS = Integer.getInteger("game.maxCatchUpTicks", 5);
+
+    // -Dgame.profile=true times every system and the swap/poll each frame, and prints p50/p99/max
+    // every game.profileDumpSeconds. JFR events are emitted either way whenever a recording enables them
+    private static final boolean PROFILE = Boolean.getBoolean("game.profile");
+    private static final int PROFILE_DUMP_SECONDS = Integer.getInteger("game.profileDumpSeconds", 5);
+    private static final int PROFILE_HISTORY_FRAMES = 600;
+
+    // -Dgame.instancedSprites=true has the GPU expand sprite quads (sprite_instanced.vert)
+    private static final boolean INSTANCED_SPRITES = Boolean.getBoolean("game.instancedSprites");
+    // -Dgame.gpuTilemap=true draws tilemaps from a tile ID texture instead of chunk meshes (tilemap_gpu.*)
+    private static final boolean GPU_TILEMAP = Boolean.getBoolean("game.gpuTilemap");
+
+    // -Dgame.allocationCheck=true measures what the main thread allocates each frame once things have
+    // warmed up, and reports any frame that made garbage. the steady state frame is meant to make none
+    private static final boolean ALLOCATION_CHECK = Boolean.getBoolean("game.allocationCheck");
+    private static final int ALLOCATION_CHECK_WARMUP_FRAMES = 300;
+
+    // size sprite atlas pages can grow to, comfortably under any GL 3.3 GL_MAX_TEXTURE_SIZE
+    private static final int SPRITE_ATLAS_PAGE_SIZE = 2048;
+
+    // threads decoding assets, and how long a frame can spend uploading ones that finished decoding
+    private static final int ASSET_WORKER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final long ASSET_UPLOAD_BUDGET_NANOS = 2_000_000L;
+    // decoded textures are cached here between launches (-Dgame.textureCache=false turns it off)
+    private static final boolean TEXTURE_CACHE = Boolean.parseBoolean(System.getProperty("game.textureCache", "true"));
+    private static final String TEXTURE_CACHE_DIR = System.getProperty("game.textureCacheDir",
+            Path.of(System.getProperty("java.io.tmpdir"), "studiosoft-texture-cache").toString());
+    // linked shader programs are cached here as driver binaries (-Dgame.shaderCache=false turns it off)
+    private static final boolean SHADER_CACHE = Boolean.parseBoolean(System.getProperty("game.shaderCache", "true"));
+    private static final String SHADER_CACHE_DIR = System.getProperty("game.shaderCacheDir",
+            Path.of(System.getProperty("java.io.tmpdir"), "studiosoft-shader-cache").toString());
+
     // used for precise framerate calcs eg proper move speed;
     private double deltaTime = 0;
 
@@ -47,6 +96,10 @@ public class Main {
         init();
         loop();
 
+        if (assets != null) {
+            assets.dispose();
+        }
+
         // Free the window callbacks and destroy the window
         glfwFreeCallbacks(window);
         glfwDestroyWindow(window);
@@ -108,62 +161,113 @@ public class Main {
     private void loop() {
         // NEW: Enable 2D texturing and alpha blending.
         glEnable(GL_TEXTURE_2D);
-        glEnable(GL_BLEND);
-        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        GLState.setBlend(true);
+        GLState.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
         // create projection matrix that does same thing as previous glOrtho
         Matrix4f projectionMatrix = new Matrix4f().ortho(0, WINDOW_WIDTH, WINDOW_HEIGHT, 0, 1, -1);
 
         // shader setup
+        ShaderCache shaderCache = null;
+        if (SHADER_CACHE) {
+            try {
+                shaderCache = new ShaderCache(Path.of(SHADER_CACHE_DIR));
+            } catch (IOException e) {
+                System.err.println("Shader cache disabled, can't use " + SHADER_CACHE_DIR + ": " + e.getMessage());
+            }
+        }
         ShaderProgram shaderProgram;
+        Uniform samplerUniform;
+        ShaderProgram instancedShader = null;
+        ShaderProgram gpuTilemapShader = null;
         try{
             String vertexSource = loadResource("/shaders/tilemap.vert");
             String fragmentSource = loadResource("/shaders/tilemap.frag");
-            shaderProgram = new ShaderProgram(vertexSource, fragmentSource);
-            // create uniforms for the proj matrix and tex sampler
-            shaderProgram.createUniform("projection");
-            shaderProgram.createUniform("view");
+            shaderProgram = new ShaderProgram(vertexSource, fragmentSource, shaderCache);
+            // create uniforms for the model matrix and tex sampler. projection and view are in the
+            // FrameData block every shader shares (FrameUniforms)
             shaderProgram.createUniform("model");
-            shaderProgram.createUniform("texture_sampler");
+            samplerUniform = shaderProgram.createUniform("texture_sampler");
             shaderProgram.createUniform("spriteUVs");
             shaderProgram.createUniform("useUVRemapping");
+
+            if (INSTANCED_SPRITES) {
+                instancedShader = new ShaderProgram(loadResource("/shaders/sprite_instanced.vert"), fragmentSource, shaderCache);
+                instancedShader.createUniform("texture_sampler");
+                instancedShader.createUniform("useUVRemapping");
+                // these never change, so set them once
+                instancedShader.bind();
+                instancedShader.setUniform("texture_sampler", 0);
+                instancedShader.setUniform("useUVRemapping", false);
+                instancedShader.unbind();
+            }
+
+            if (GPU_TILEMAP) {
+                gpuTilemapShader = new ShaderProgram(loadResource("/shaders/tilemap_gpu.vert"),
+                        loadResource("/shaders/tilemap_gpu.frag"), shaderCache);
+                gpuTilemapShader.createUniform("texture_sampler");
+                gpuTilemapShader.createUniform("tileIndices");
+                gpuTilemapShader.createUniform("mapInfo");
+                gpuTilemapShader.createUniform("atlasInfo");
+            }
         } catch (Exception e){
             e.printStackTrace();
             return;
         }
 
+        // projection, view, time and viewport for every shader, one upload a frame
+        FrameUniforms frameUniforms = new FrameUniforms();
+
         // for deltaTime calc
         double lastFrameTime = glfwGetTime();
 
 
-        // Load the texture
-        Texture frogTex = null;
+        // Load the textures. decoding runs on the asset workers in parallel, uploads happen here.
+        // sprite sheets get packed onto shared atlas pages so every sprite batches together,
+        // more sprite sheets just get added to the packer
+        TextureCache textureCache = null;
+        if (TEXTURE_CACHE) {
+            try {
+                textureCache = new TextureCache(Path.of(TEXTURE_CACHE_DIR));
+            } catch (IOException e) {
+                System.err.println("Texture cache disabled, can't use " + TEXTURE_CACHE_DIR + ": " + e.getMessage());
+            }
+        }
+        assets = new AssetManager(ASSET_WORKER_THREADS, textureCache);
+        CompletableFuture<DecodedImage> frogImage;
+        CompletableFuture<Texture> testAtlasFuture;
         try {
             // Make sure "textures/frog.png" is in your resources folder.
             URL frogURL = Main.class.getClassLoader().getResource("textures/frog.png");
             if (frogURL == null) {
                 throw new IOException("Resource not found: textures/frog.png");
             }
-            frogTex = new Texture(frogURL, 32);
-        } catch (IOException e) {
-            System.err.println("Failed to load Frog Texture");
-            throw new RuntimeException(e);
-        }
-
-        // load test atlas
-        Texture testAtlas = null;
-        try {
-            // Make sure "textures/frog.png" is in your resources folder.
+            // tilemaps need their atlas as a whole texture, so this one isn't packed
             URL testAtlasURL = Main.class.getClassLoader().getResource("textures/bgatlas.png");
             if (testAtlasURL == null) {
                 throw new IOException("Resource not found: textures/bgatlas.png");
             }
-            testAtlas = new Texture(testAtlasURL, 16);
+            frogImage = assets.decode(frogURL);
+            testAtlasFuture = assets.loadTexture(testAtlasURL, 16);
         } catch (IOException e) {
-            System.err.println("Failed to load bgatlas Texture");
+            System.err.println("Failed to find textures");
             throw new RuntimeException(e);
         }
 
+        AtlasPacker spritePacker = new AtlasPacker(SPRITE_ATLAS_PAGE_SIZE);
+        Texture frogTex;
+        Texture testAtlas;
+        try {
+            assets.finishLoading();
+            spritePacker.add("frog", frogImage.join(), 32);
+            testAtlas = testAtlasFuture.join();
+        } catch (CompletionException e) {
+            System.err.println("Failed to load textures");
+            throw e;
+        }
+        spritePacker.build();
+        frogTex = spritePacker.get("frog");
+
 
         // Set the clear color to a dark gray
         glClearColor(0.1f, 0.2f, 0.1f, 0.0f);
@@ -178,14 +282,66 @@ public class Main {
 
         /// TESTING NEW ECS SETUPS
         World world = new World();
+        // positions are touched by nearly every system, so keep them packed as x/y columns
+        world.registerColumns(Position.class, new PositionColumns());
         Camera camera = new Camera(0f, 0f, 2f);
 
+        // spatial index used for culling, cells a couple of tiles across
+        SpatialGrid spatialGrid = new SpatialGrid(TILE_WIDTH * 2);
+
+        FixedTimestep timestep = new FixedTimestep(TICKS_PER_SECOND, MAX_CATCH_UP_TICKS);
+
         // Systems
-        RenderSystem renderSystem = new RenderSystem(world, camera, WINDOW_WIDTH, WINDOW_HEIGHT, shaderProgram);
+        RenderSystem renderSystem = new RenderSystem(world, camera, WINDOW_WIDTH, WINDOW_HEIGHT, shaderProgram,
+                spatialGrid, timestep);
+        if (instancedShader != null) {
+            renderSystem.useInstancing(instancedShader);
+        }
+        PositionHistorySystem positionHistorySystem = new PositionHistorySystem(world);
         PlayerInputSystem playerInputSystem = new PlayerInputSystem(world, window);
+        SpatialIndexSystem spatialIndexSystem = new SpatialIndexSystem(world, spatialGrid);
 
         System.out.println("Context at start of loop(): " + org.lwjgl.glfw.GLFW.glfwGetCurrentContext());
-        TilemapRenderSystem tilemapRenderSystem = new TilemapRenderSystem(world, testAtlas, shaderProgram, camera);
+        // world tiles, as chunk meshes or from a tile ID texture
+        ECSSystem tilemapRenderSystem;
+        if (gpuTilemapShader != null) {
+            tilemapRenderSystem = new TilemapTextureRenderSystem(world, testAtlas, gpuTilemapShader);
+        } else {
+            tilemapRenderSystem = new TilemapRenderSystem(world, testAtlas, shaderProgram, camera,
+                    WINDOW_WIDTH, WINDOW_HEIGHT);
+        }
+
+        // simulation systems, run once per fixed tick: remember last positions, movement etc, then re-index
+        SystemScheduler simulationScheduler = new SystemScheduler();
+        simulationScheduler.addSystem(positionHistorySystem);
+        simulationScheduler.addSystem(playerInputSystem);
+        simulationScheduler.addSystem(spatialIndexSystem);
+
+        // render systems, run once per frame: world tiles, then entities on top
+        SystemScheduler renderScheduler = new SystemScheduler();
+        renderScheduler.addSystem(tilemapRenderSystem);
+        renderScheduler.addSystem(renderSystem);
+
+        FrameProfiler profiler = null;
+        int framePhase = 0, swapPhase = 0, pollPhase = 0;
+        if (PROFILE) {
+            profiler = new FrameProfiler(PROFILE_HISTORY_FRAMES);
+            framePhase = profiler.registerPhase("frame");
+            swapPhase = profiler.registerPhase("glfwSwapBuffers");
+            pollPhase = profiler.registerPhase("glfwPollEvents");
+            simulationScheduler.setProfiler(profiler);
+            renderScheduler.setProfiler(profiler);
+        }
+
+        AllocationGuard allocationGuard = null;
+        if (ALLOCATION_CHECK) {
+            if (AllocationGuard.isSupported()) {
+                allocationGuard = new AllocationGuard();
+            } else {
+                System.err.println("game.allocationCheck: this JVM can't count thread allocations, ignoring");
+            }
+        }
+        long frameCount = 0;
 
         // Initial entities
         Entity player = world.createEntity();
@@ -205,53 +361,87 @@ public class Main {
         testLevelE.addComponent(new TilemapRenderable(0));
         testLevelE.addComponent(new LevelRenderData());
 
+        // don't count all the loading above as time the simulation has to catch up on
+        lastFrameTime = glfwGetTime();
+        double lastProfileDump = lastFrameTime;
 
         while (!glfwWindowShouldClose(window)) {
+            long frameStart = System.nanoTime();
+            boolean checkAllocations = allocationGuard != null && frameCount++ >= ALLOCATION_CHECK_WARMUP_FRAMES;
+            if (checkAllocations) {
+                allocationGuard.begin();
+            }
 
-            // get start time for deltaTime
-            double loopStartTime = glfwGetTime();
+            // --- SIMULATION LOGIC STARTS HERE ---
 
-            // --- INPUT LOGIC STARTS HERE ---
+            // run however many fixed ticks fit in the time since the last frame. deltaTime here is
+            // always the tick length, so gameplay doesn't depend on the frame rate
+            int ticks = timestep.advance(deltaTime);
+            for (int i = 0; i < ticks; i++) {
+                simulationScheduler.update(timestep.getTickSeconds());
+                // apply structural changes the systems queued up while they were iterating
+                world.flushCommands();
+            }
 
-            // --- INPUT LOGIC ENDS HERE ---
+            // --- SIMULATION LOGIC ENDS HERE ---
 
             // --- RENDER LOGIC STARTS HERE ---
 
-            // 1. Clear the screen
+            // 1. Clear the screen, and upload any textures that finished decoding, within a budget
             glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+            assets.update(ASSET_UPLOAD_BUDGET_NANOS);
 
-            // 2. bind shader and set uniforms
+            // 2. upload the shared per frame uniforms, then bind shader and set its own. the handles
+            // skip the upload when the value hasn't changed
+            frameUniforms.update(projectionMatrix, camera.getViewMatrix(), (float) glfwGetTime(), WINDOW_WIDTH, WINDOW_HEIGHT);
             shaderProgram.bind();
-            shaderProgram.setUniform("projection", projectionMatrix);
-            shaderProgram.setUniform("view", camera.getViewMatrix());
-            shaderProgram.setUniform("texture_sampler", 0); //use tex unit 0
-
-            // 3. Update core systems (movement etc)
-            playerInputSystem.update((float) deltaTime);
-
-
-            // 4. Draw world tiles for current frame
-            tilemapRenderSystem.update((float) deltaTime);
-
-            // 5. Draw entities for current frame
-            //testAtlas.bind();
-            renderSystem.update((float) deltaTime);
+            samplerUniform.set(0); //use tex unit 0
 
-            // 6. unbind shader
-            shaderProgram.unbind();
+            // 3. Draw world tiles and entities for current frame, interpolated between the last two ticks.
+            // the shader stays bound into the next frame, binding it again then is free
+            renderScheduler.update((float) deltaTime);
+            world.flushCommands();
 
             // --- RENDER LOGIC ENDS HERE ---
 
-            // 7. Swap the buffers to display what we've drawn
+            // 4. Swap the buffers to display what we've drawn (with v-sync on this is where we wait)
+            long phaseStart = System.nanoTime();
+            FramePhaseEvent swapEvent = FramePhaseEvent.start("glfwSwapBuffers");
             glfwSwapBuffers(window);
+            FramePhaseEvent.finish(swapEvent);
+            if (profiler != null) {
+                profiler.end(swapPhase, phaseStart);
+            }
 
-            // 8. Poll for events (like closing the window)
+            // 5. Poll for events (like closing the window)
+            phaseStart = System.nanoTime();
+            FramePhaseEvent pollEvent = FramePhaseEvent.start("glfwPollEvents");
             glfwPollEvents();
+            FramePhaseEvent.finish(pollEvent);
+            if (profiler != null) {
+                profiler.end(pollPhase, phaseStart);
+            }
 
-            // 9. calc deltaTime
+            // 6. calc deltaTime, start to start so the next frame's ticks cover this whole frame
             double loopEndTime = glfwGetTime();
-            deltaTime = loopEndTime - loopStartTime;
-            //System.out.println(1/deltaTime);
+            deltaTime = loopEndTime - lastFrameTime;
+            lastFrameTime = loopEndTime;
+
+            if (checkAllocations) {
+                long allocated = allocationGuard.end();
+                if (allocated > 0) {
+                    // printing allocates too, but after the measurement
+                    System.out.println("frame " + frameCount + " allocated " + allocated + " bytes");
+                }
+            }
+
+            if (profiler != null) {
+                profiler.end(framePhase, frameStart);
+                if (loopEndTime - lastProfileDump >= PROFILE_DUMP_SECONDS) {
+                    profiler.dump(System.out);
+                    lastProfileDump = loopEndTime;
+                }
+            }
         }
     }
 
@@ -0,0 +1,119 @@
+package studiosoft.project;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// a persistent view of every entity that has all of a set of component types.
+// systems create one through World.createQuery when they're constructed and keep it,
+// the world then keeps the matches up to date as components are added and removed,
+// so reading it each frame costs the number of matches rather than the size of the world.
+//
+// iterate with a plain index loop (no allocation):
+//     for (int i = 0; i < query.size(); i++) { int entityID = query.getEntity(i); ... }
+public class Query {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ComponentStorage<?>[] storages;
+
+    // same sparse set layout as ComponentStorage, just without the component payload
+    private int[] sparse;
+    private int[] entities;
+    private int size;
+
+    Query(ComponentStorage<?>[] storages) {
+        this.storages = storages;
+        this.sparse = new int[INITIAL_CAPACITY];
+        Arrays.fill(sparse, -1);
+        this.entities = new int[INITIAL_CAPACITY];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getEntity(int index) {
+        return entities[index];
+    }
+
+    public boolean contains(int entityID) {
+        return entityID < sparse.length && sparse[entityID] != -1;
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(entities[i]);
+        }
+    }
+
+    // matching entities whose component of the given type was added or changed after the tick,
+    // costs the number of matches (see World.advanceChangeTick for how to track the tick)
+    public void forEachChangedSince(Class<?> componentType, int tick, IntConsumer action) {
+        ComponentStorage<?> storage = null;
+        for (ComponentStorage<?> candidate : storages) {
+            if (candidate.getType() == componentType) {
+                storage = candidate;
+            }
+        }
+        if (storage == null) {
+            throw new IllegalArgumentException("Query doesn't include " + componentType.getSimpleName());
+        }
+
+        for (int i = 0; i < size; i++) {
+            int entityID = entities[i];
+            if (storage.changedSince(entityID, tick)) {
+                action.accept(entityID);
+            }
+        }
+    }
+
+    // fill with everything that already matches, driven by the smallest storage
+    void populate() {
+        ComponentStorage<?> smallest = storages[0];
+        for (ComponentStorage<?> storage : storages) {
+            if (storage.size() < smallest.size()) {
+                smallest = storage;
+            }
+        }
+        for (int i = 0; i < smallest.size(); i++) {
+            onComponentAdded(smallest.getEntity(i));
+        }
+    }
+
+    // called by a watched storage when it gains a component for this entity
+    void onComponentAdded(int entityID) {
+        if (contains(entityID)) {
+            return;
+        }
+        for (ComponentStorage<?> storage : storages) {
+            if (!storage.has(entityID)) {
+                return;
+            }
+        }
+
+        if (entityID >= sparse.length) {
+            int oldLength = sparse.length;
+            sparse = Arrays.copyOf(sparse, Math.max(entityID + 1, oldLength * 2));
+            Arrays.fill(sparse, oldLength, sparse.length, -1);
+        }
+        if (size == entities.length) {
+            entities = Arrays.copyOf(entities, entities.length * 2);
+        }
+        sparse[entityID] = size;
+        entities[size] = entityID;
+        size++;
+    }
+
+    // called by a watched storage when it loses a component for this entity.
+    // swap-removes, so the order of matches isn't stable across removals
+    void onComponentRemoved(int entityID) {
+        if (!contains(entityID)) {
+            return;
+        }
+        int index = sparse[entityID];
+        int last = entities[size - 1];
+        entities[index] = last;
+        sparse[last] = index;
+        sparse[entityID] = -1;
+        size--;
+    }
+}
@@ -0,0 +1,33 @@
+package studiosoft.project;
+
+// plays back a fixed sequence of held keys, each step held for a number of ticks, looping forever.
+// call nextTick() once per simulation tick
+public class ScriptedInputSource implements InputSource {
+    private final int ticksPerStep;
+    private final int[][] steps;
+    private long tick;
+
+    // each step is the set of keys held down during it
+    public ScriptedInputSource(int ticksPerStep, int[]... steps) {
+        if (ticksPerStep <= 0 || steps.length == 0) {
+            throw new IllegalArgumentException("Script needs at least one step of at least one tick");
+        }
+        this.ticksPerStep = ticksPerStep;
+        this.steps = steps;
+    }
+
+    public void nextTick() {
+        tick++;
+    }
+
+    @Override
+    public boolean isKeyDown(int key) {
+        int[] held = steps[(int) ((tick / ticksPerStep) % steps.length)];
+        for (int heldKey : held) {
+            if (heldKey == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
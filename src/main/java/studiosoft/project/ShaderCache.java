@@ -0,0 +1,140 @@
+package studiosoft.project;
+
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static org.lwjgl.opengl.GL.getCapabilities;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.GL_LINK_STATUS;
+import static org.lwjgl.opengl.GL20.glGetProgrami;
+import static org.lwjgl.opengl.GL41.*;
+
+// keeps linked programs on disk as driver binaries (glGetProgramBinary), so a later launch loads them
+// with glProgramBinary instead of compiling and linking the sources again. ShaderProgram uses it when
+// given one.
+//
+// the key is a hash of the sources plus the GL vendor, renderer and version strings, so a driver
+// update or another GPU just misses. drivers can still turn a binary down (GL_LINK_STATUS false after
+// glProgramBinary), load() reports that and the program gets compiled from source and stored again.
+//
+// file layout, little endian: int magic ('SPRG'), int version, int binary format, int length, binary
+public class ShaderCache {
+    private static final int MAGIC = 0x47525053; // "SPRG" read as a little endian int
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final String EXTENSION = ".bin";
+
+    private final Path directory;
+
+    public ShaderCache(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    // needs a current GL context. GL 4.1 or ARB_get_program_binary, and a driver with at least one format
+    public static boolean isSupported() {
+        GLCapabilities caps = getCapabilities();
+        return (caps.OpenGL41 || caps.GL_ARB_get_program_binary) && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+    }
+
+    // needs a current GL context, the key includes which driver it's for
+    public String key(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{vertexSource, fragmentSource,
+                    glGetString(GL_VENDOR), glGetString(GL_RENDERER), glGetString(GL_VERSION)}) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                // so moving text from one part to the next changes the key
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // loads the cached binary for key into program. true if the program is now linked, false on a
+    // miss or a binary the driver won't take, in which case program still needs compiling
+    public boolean load(int programId, String key) {
+        Path file = directory.resolve(key + EXTENSION);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                return false;
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            int format = mapped.getInt(8);
+            int length = mapped.getInt(12);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || length <= 0 || size != HEADER_BYTES + (long) length) {
+                return false;
+            }
+            glProgramBinary(programId, format, mapped.slice(HEADER_BYTES, length));
+        } catch (IOException e) {
+            System.err.println("Could not read shader cache file " + file + ": " + e.getMessage());
+            return false;
+        }
+        // drivers can reject a binary at any time, eg after an update that kept the version string
+        return glGetProgrami(programId, GL_LINK_STATUS) == GL_TRUE;
+    }
+
+    // saves a linked program under key. the program should have been linked with
+    // GL_PROGRAM_BINARY_RETRIEVABLE_HINT set
+    public void store(int programId, String key) {
+        int length = glGetProgrami(programId, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return;
+        }
+        Path file = directory.resolve(key + EXTENSION);
+        ByteBuffer binary = MemoryUtil.memAlloc(length);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer written = stack.mallocInt(1);
+            IntBuffer format = stack.mallocInt(1);
+            glGetProgramBinary(programId, written, format, binary);
+            binary.limit(written.get(0));
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(format.get(0)).putInt(binary.remaining());
+            header.flip();
+            write(file, header, binary);
+        } catch (IOException e) {
+            // the program is fine, it just won't be cached
+            System.err.println("Could not write shader cache file " + file + ": " + e.getMessage());
+        } finally {
+            MemoryUtil.memFree(binary);
+        }
+    }
+
+    // to a temp name then moved into place, so a half written file is never picked up
+    private void write(Path file, ByteBuffer header, ByteBuffer binary) throws IOException {
+        Path temp = Files.createTempFile(directory, "prog", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining() || binary.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, binary});
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
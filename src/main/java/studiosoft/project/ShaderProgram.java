@@ -2,31 +2,54 @@ package studiosoft.project;
 
 import org.joml.Matrix4f;
 import org.joml.Vector4f;
-import org.lwjgl.system.MemoryStack;
 
-import java.nio.FloatBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31.glUniformBlockBinding;
+import static org.lwjgl.opengl.GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT;
+import static org.lwjgl.opengl.GL41.glProgramParameteri;
 
 public class ShaderProgram {
 
     private final int programId;
     private int vertexShaderId;
     private int fragmentShaderId;
-    private final Map<String, Integer> uniforms;
+    private final Map<String, Uniform> uniforms;
+    private boolean usesFrameUniforms;
 
     public ShaderProgram(String vertexSource, String fragmentSource) {
+        this(vertexSource, fragmentSource, null);
+    }
+
+    // with a cache, a program linked on an earlier launch is loaded as a driver binary rather than
+    // compiled again. falls back to the sources on a miss or when the driver rejects the binary
+    public ShaderProgram(String vertexSource, String fragmentSource, ShaderCache cache) {
         programId = glCreateProgram();
         if(programId == 0) {
             throw new RuntimeException("Could not create shader program");
         }
         uniforms = new HashMap<>();
 
+        String cacheKey = cache != null && ShaderCache.isSupported() ? cache.key(vertexSource, fragmentSource) : null;
+        if(cacheKey != null && cache.load(programId, cacheKey)){
+            afterLink();
+            return;
+        }
+
         createVertexShader(vertexSource);
         createFragmentShader(fragmentSource);
+        if(cacheKey != null){
+            // some drivers only keep a binary around when asked before linking
+            glProgramParameteri(programId, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
         link();
+        if(cacheKey != null){
+            cache.store(programId, cacheKey);
+        }
     }
 
     public void createVertexShader(String shaderCode) {
@@ -59,7 +82,11 @@ public class ShaderProgram {
         if(glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE) {
             throw new RuntimeException("Error linking program: " + glGetProgramInfoLog(programId, 1024));
         }
+        afterLink();
+    }
 
+    // linked from source or loaded from a binary, either way
+    private void afterLink() {
         if(vertexShaderId != 0){
             glDetachShader(programId, vertexShaderId);
         }
@@ -67,63 +94,81 @@ public class ShaderProgram {
             glDetachShader(programId, fragmentShaderId);
         }
 
+        // programs that declare the shared per frame block read it from FrameUniforms' binding point
+        int frameBlock = glGetUniformBlockIndex(programId, FrameUniforms.BLOCK_NAME);
+        if(frameBlock != GL_INVALID_INDEX){
+            glUniformBlockBinding(programId, frameBlock, FrameUniforms.BINDING);
+            usesFrameUniforms = true;
+        }
+
         //glValidateProgram(programId);
         //if(glGetProgrami(programId, GL_VALIDATE_STATUS) == GL_FALSE) {
         //    System.err.println("Error validating program: " + glGetProgramInfoLog(programId, 1024));
         //}
     }
 
-    public void createUniform(String uniformName) {
+    // looks the location up once. keep the returned handle to set it without going through the name
+    public Uniform createUniform(String uniformName) {
         int uniformLocation = glGetUniformLocation(programId, uniformName);
         if(uniformLocation < 0){
             throw new RuntimeException("Could not get uniform: " + uniformName);
         }
-        uniforms.put(uniformName, uniformLocation);
+        Uniform uniform = new Uniform(uniformName, programId, uniformLocation);
+        uniforms.put(uniformName, uniform);
+        return uniform;
     }
 
-    public void createUniform(String uniformName, Matrix4f value) {
-        int uniformLocation = glGetUniformLocation(programId, uniformName);
-        if(uniformLocation < 0){
-            throw new RuntimeException("Could not get uniform: " + uniformName);
+    public Uniform createUniform(String uniformName, Matrix4f value) {
+        Uniform uniform = createUniform(uniformName);
+        uniform.set(value);
+        return uniform;
+    }
+
+    public Uniform getUniform(String uniformName) {
+        Uniform uniform = uniforms.get(uniformName);
+        if(uniform == null){
+            throw new RuntimeException("Uniform was never created: " + uniformName);
         }
-        uniforms.put(uniformName, uniformLocation);
-        setUniform(uniformName, value);
+        return uniform;
     }
 
+    // by name, a map lookup each call. hot paths should hold on to the Uniform instead
     public void setUniform(String uniformName, Matrix4f value) {
-        //dump matrix into float buffer
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer fb = stack.mallocFloat(16);
-            value.get(fb);
-            glUniformMatrix4fv(uniforms.get(uniformName), false, fb);
-        }
+        getUniform(uniformName).set(value);
     }
 
     public void setUniform(String uniformName, int value) {
-        glUniform1i(uniforms.get(uniformName), value);
+        getUniform(uniformName).set(value);
     }
 
     public void setUniform(String uniformName, Vector4f value) {
-        glUniform4f(uniforms.get(uniformName), value.x, value.y, value.z, value.w);
+        getUniform(uniformName).set(value);
     }
 
     public void setUniform(String uniformName, boolean value) {
-        // A false is 0, a true is 1
-        glUniform1i(uniforms.get(uniformName), value ? 1 : 0);
+        getUniform(uniformName).set(value);
+    }
+
+    public boolean usesFrameUniforms() {
+        return usesFrameUniforms;
+    }
+
+    public int getProgramId() {
+        return programId;
     }
 
     public void bind(){
-        glUseProgram(programId);
+        GLState.useProgram(programId);
     }
 
     public void unbind(){
-        glUseProgram(0);
+        GLState.useProgram(0);
     }
 
     public void cleanup(){
         unbind();
         if(programId != 0){
-            glDeleteProgram(programId);
+            GLState.deleteProgram(programId);
         }
     }
 }
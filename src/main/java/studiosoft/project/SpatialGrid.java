@@ -0,0 +1,246 @@
+package studiosoft.project;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// uniform grid spatial hash over entity bounds. each entity is filed under the cell its
+// top-left corner falls in, and queries widen their search by the biggest entity seen so far,
+// so they stay correct without inserting an entity into every cell it overlaps.
+//
+// cells are kept in an open addressing table keyed by (cellX, cellY) so the world doesn't need
+// fixed bounds, and each cell is an intrusive doubly linked list threaded through per-entity arrays.
+// nothing allocates once the arrays have grown to fit.
+public class SpatialGrid {
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private final float cellSize;
+
+    // cell table
+    private long[] cellKeys;
+    private int[] cellHeads;
+    private int usedCells;
+
+    // per entity (indexed by entity ID)
+    private int[] cellOf;   // slot in the cell table, -1 if not in the grid
+    private int[] next;
+    private int[] prev;
+    private float[] minX, minY, width, height;
+
+    // largest bounds inserted so far, used to pad queries
+    private float maxWidth;
+    private float maxHeight;
+
+    public SpatialGrid(float cellSize) {
+        this.cellSize = cellSize;
+        this.cellKeys = new long[64];
+        Arrays.fill(cellKeys, EMPTY_KEY);
+        this.cellHeads = new int[64];
+        this.cellOf = new int[64];
+        Arrays.fill(cellOf, -1);
+        this.next = new int[64];
+        this.prev = new int[64];
+        this.minX = new float[64];
+        this.minY = new float[64];
+        this.width = new float[64];
+        this.height = new float[64];
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public boolean contains(int entityID) {
+        return entityID < cellOf.length && cellOf[entityID] != -1;
+    }
+
+    // insert the entity, or move it if it's already in the grid
+    public void update(int entityID, float x, float y, float w, float h) {
+        ensureEntityCapacity(entityID + 1);
+        minX[entityID] = x;
+        minY[entityID] = y;
+        width[entityID] = w;
+        height[entityID] = h;
+        maxWidth = Math.max(maxWidth, w);
+        maxHeight = Math.max(maxHeight, h);
+
+        int slot = findOrCreateCell(cellCoord(x), cellCoord(y));
+        if (cellOf[entityID] == slot) {
+            return;
+        }
+        unlink(entityID);
+        link(entityID, slot);
+    }
+
+    public void remove(int entityID) {
+        if (contains(entityID)) {
+            unlink(entityID);
+        }
+    }
+
+    // every entity whose bounds overlap the rectangle
+    public void queryRect(float queryMinX, float queryMinY, float queryMaxX, float queryMaxY, IntConsumer action) {
+        // an entity filed further up/left can still reach into the rect by up to its own size
+        int firstCellX = cellCoord(queryMinX - maxWidth);
+        int firstCellY = cellCoord(queryMinY - maxHeight);
+        int lastCellX = cellCoord(queryMaxX);
+        int lastCellY = cellCoord(queryMaxY);
+
+        for (int cy = firstCellY; cy <= lastCellY; cy++) {
+            for (int cx = firstCellX; cx <= lastCellX; cx++) {
+                int slot = findCell(cx, cy);
+                if (slot == -1) {
+                    continue;
+                }
+                for (int e = cellHeads[slot]; e != -1; e = next[e]) {
+                    if (minX[e] <= queryMaxX && minX[e] + width[e] >= queryMinX
+                            && minY[e] <= queryMaxY && minY[e] + height[e] >= queryMinY) {
+                        action.accept(e);
+                    }
+                }
+            }
+        }
+    }
+
+    // every entity whose bounds come within radius of the point.
+    // walks the cells itself rather than going through queryRect, a lambda capturing the point
+    // would be allocated on every call
+    public void queryRadius(float x, float y, float radius, IntConsumer action) {
+        float radiusSq = radius * radius;
+        int firstCellX = cellCoord(x - radius - maxWidth);
+        int firstCellY = cellCoord(y - radius - maxHeight);
+        int lastCellX = cellCoord(x + radius);
+        int lastCellY = cellCoord(y + radius);
+
+        for (int cy = firstCellY; cy <= lastCellY; cy++) {
+            for (int cx = firstCellX; cx <= lastCellX; cx++) {
+                int slot = findCell(cx, cy);
+                if (slot == -1) {
+                    continue;
+                }
+                for (int e = cellHeads[slot]; e != -1; e = next[e]) {
+                    // distance from the point to the closest spot on the entity's bounds
+                    float dx = Math.max(Math.max(minX[e] - x, 0f), x - (minX[e] + width[e]));
+                    float dy = Math.max(Math.max(minY[e] - y, 0f), y - (minY[e] + height[e]));
+                    if (dx * dx + dy * dy <= radiusSq) {
+                        action.accept(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private int cellCoord(float worldCoord) {
+        return (int) Math.floor(worldCoord / cellSize);
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private static int hash(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int findCell(int cx, int cy) {
+        long key = cellKey(cx, cy);
+        int mask = cellKeys.length - 1;
+        for (int slot = hash(key, mask); ; slot = (slot + 1) & mask) {
+            if (cellKeys[slot] == key) {
+                return slot;
+            }
+            if (cellKeys[slot] == EMPTY_KEY) {
+                return -1;
+            }
+        }
+    }
+
+    // cells are never taken out of the table, an emptied cell just has no head
+    private int findOrCreateCell(int cx, int cy) {
+        int slot = findCell(cx, cy);
+        if (slot != -1) {
+            return slot;
+        }
+        if ((usedCells + 1) * 2 > cellKeys.length) {
+            rehash(cellKeys.length * 2);
+        }
+
+        long key = cellKey(cx, cy);
+        int mask = cellKeys.length - 1;
+        slot = hash(key, mask);
+        while (cellKeys[slot] != EMPTY_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        cellKeys[slot] = key;
+        cellHeads[slot] = -1;
+        usedCells++;
+        return slot;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        cellKeys = new long[newCapacity];
+        Arrays.fill(cellKeys, EMPTY_KEY);
+        cellHeads = new int[newCapacity];
+
+        int mask = newCapacity - 1;
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldKeys[oldSlot] == EMPTY_KEY) {
+                continue;
+            }
+            int slot = hash(oldKeys[oldSlot], mask);
+            while (cellKeys[slot] != EMPTY_KEY) {
+                slot = (slot + 1) & mask;
+            }
+            cellKeys[slot] = oldKeys[oldSlot];
+            cellHeads[slot] = oldHeads[oldSlot];
+            for (int e = oldHeads[oldSlot]; e != -1; e = next[e]) {
+                cellOf[e] = slot;
+            }
+        }
+    }
+
+    private void link(int entityID, int slot) {
+        int head = cellHeads[slot];
+        next[entityID] = head;
+        prev[entityID] = -1;
+        if (head != -1) {
+            prev[head] = entityID;
+        }
+        cellHeads[slot] = entityID;
+        cellOf[entityID] = slot;
+    }
+
+    private void unlink(int entityID) {
+        int slot = cellOf[entityID];
+        if (slot == -1) {
+            return;
+        }
+        if (prev[entityID] != -1) {
+            next[prev[entityID]] = next[entityID];
+        } else {
+            cellHeads[slot] = next[entityID];
+        }
+        if (next[entityID] != -1) {
+            prev[next[entityID]] = prev[entityID];
+        }
+        cellOf[entityID] = -1;
+    }
+
+    private void ensureEntityCapacity(int capacity) {
+        if (capacity <= cellOf.length) {
+            return;
+        }
+        int oldLength = cellOf.length;
+        int newLength = Math.max(capacity, oldLength * 2);
+        cellOf = Arrays.copyOf(cellOf, newLength);
+        Arrays.fill(cellOf, oldLength, newLength, -1);
+        next = Arrays.copyOf(next, newLength);
+        prev = Arrays.copyOf(prev, newLength);
+        minX = Arrays.copyOf(minX, newLength);
+        minY = Arrays.copyOf(minY, newLength);
+        width = Arrays.copyOf(width, newLength);
+        height = Arrays.copyOf(height, newLength);
+    }
+}
@@ -14,16 +14,16 @@ public class Sprite {
     private int tileSpanY;
 
     public Sprite(Texture srcTex, int tileU, int tileV, int tileSpanX, int tileSpanY) {
-        float tileSizeFracY = (float) srcTex.getTileSize() / srcTex.getHeight();
-        float tileSizeFracX = (float) srcTex.getTileSize() / srcTex.getWidth();
+        int tileSize = srcTex.getTileSize();
 
         this.textureAtlas = srcTex;
 
-        this.texU1 = tileU * tileSizeFracX;
-        this.texV1 = tileV * tileSizeFracY;
+        // srcTex maps these onto the GL texture, so a texture packed into an atlas page just works
+        this.texU1 = srcTex.getU(tileU * tileSize);
+        this.texV1 = srcTex.getV(tileV * tileSize);
 
-        this.texU2 = texU1 + (tileSpanX  * tileSizeFracX);
-        this.texV2 = texV1 + (tileSpanY * tileSizeFracY);
+        this.texU2 = srcTex.getU((tileU + tileSpanX) * tileSize);
+        this.texV2 = srcTex.getV((tileV + tileSpanY) * tileSize);
 
         this.sizeX = tileSpanX * srcTex.getTileSize();
         this.sizeY = tileSpanY * srcTex.getTileSize();
@@ -57,11 +57,16 @@ public class Sprite {
     }
 
     public Vector4f getUVsAsVector() {
+        return getUVsAsVector(new Vector4f());
+    }
+
+    // same, into dest instead of a new vector
+    public Vector4f getUVsAsVector(Vector4f dest) {
         // Assuming getU1, getV1 etc. give you the corners of the sprite on the atlas
         float u_start = texU1;
         float v_start = texV1;
         float u_width = texU2 - texU1;
         float v_height = texV2 - texV1;
-        return new Vector4f(u_start, v_start, u_width, v_height);
+        return dest.set(u_start, v_start, u_width, v_height);
     }
 }
@@ -0,0 +1,150 @@
+package studiosoft.project;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+
+// collects sprites for a frame and draws them with one glDrawArrays per texture, instead of one per sprite.
+// vertices go through a StreamingBuffer, so rewriting them every frame doesn't stall on the GPU.
+// every quad is written out already in world space with its atlas UVs baked in, so the shader just needs
+// model = identity and useUVRemapping = false (same vertex layout as the tilemap: x, y, u, v).
+//
+//     batch.begin();
+//     batch.add(sprite, x, y); ...
+//     batch.flush();   // GL side, sorts by texture, uploads and draws
+//
+// sprites using the same texture keep the order they were added in. nothing allocates once the
+// arrays have grown to fit the biggest frame so far
+public class SpriteBatch {
+    // two triangles per sprite, 6 verts of x, y, u, v
+    public static final int FLOATS_PER_SPRITE = 6 * 4;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final SpriteList list = new SpriteList();
+
+    // only used by buildVertices, flush writes straight into the streaming buffer
+    private FloatBuffer vertices;
+
+    // GL objects are made on the first flush so everything above works without a context
+    private int vaoID;
+    private StreamingBuffer stream;
+    private int drawCalls;
+
+    public void begin() {
+        list.clear();
+    }
+
+    public void add(Sprite sprite, float x, float y) {
+        list.add(sprite, x, y);
+    }
+
+    public int size() {
+        return list.count;
+    }
+
+    // draw calls issued by the last flush
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    // the CPU work flush does (sort by texture, write the quads) into a plain off-heap buffer. no GL calls
+    public FloatBuffer buildVertices() {
+        if (vertices == null || vertices.capacity() < list.count * FLOATS_PER_SPRITE) {
+            vertices = BufferUtils.createFloatBuffer(Math.max(list.count, list.capacity()) * FLOATS_PER_SPRITE);
+        }
+        vertices.clear();
+        list.sort();
+        writeVertices(vertices);
+        vertices.flip();
+        return vertices;
+    }
+
+    private void writeVertices(FloatBuffer dest) {
+        for (int i = 0; i < list.count; i++) {
+            int index = list.order[i];
+            writeQuad(dest, list.sprites[index], list.x[index], list.y[index]);
+        }
+    }
+
+    // same corners and winding as the old shared 1x1 quad that got scaled by the model matrix
+    private static void writeQuad(FloatBuffer dest, Sprite sprite, float x, float y) {
+        float x2 = x + sprite.getSizeX();
+        float y2 = y + sprite.getSizeY();
+        float u1 = sprite.getU1();
+        float v1 = sprite.getV1();
+        float u2 = sprite.getU2();
+        float v2 = sprite.getV2();
+
+        dest.put(x).put(y2).put(u1).put(v2);
+        dest.put(x).put(y).put(u1).put(v1);
+        dest.put(x2).put(y).put(u2).put(v1);
+
+        dest.put(x2).put(y).put(u2).put(v1);
+        dest.put(x2).put(y2).put(u2).put(v2);
+        dest.put(x).put(y2).put(u1).put(v2);
+    }
+
+    // uploads everything added since begin() and draws it, one call per run of the same texture.
+    // expects the shader to be bound with model/useUVRemapping already set for world space vertices
+    public void flush() {
+        drawCalls = 0;
+        if (list.count == 0) {
+            return;
+        }
+        if (vaoID == 0) {
+            vaoID = glGenVertexArrays();
+            stream = new StreamingBuffer(GL_ARRAY_BUFFER, INITIAL_CAPACITY * FLOATS_PER_SPRITE * Float.BYTES);
+        }
+
+        list.sort();
+        writeVertices(stream.map(list.count * FLOATS_PER_SPRITE));
+        long offset = stream.unmap();
+
+        GLState.bindVertexArray(vaoID);
+        pointAttributes(offset);
+
+        int count = list.count;
+        int runStart = 0;
+        int runTexture = list.textureAt(0);
+        for (int i = 1; i <= count; i++) {
+            int texture = i < count ? list.textureAt(i) : -1;
+            if (texture != runTexture) {
+                GLState.bindTexture(0, runTexture);
+                glDrawArrays(GL_TRIANGLES, runStart * 6, (i - runStart) * 6);
+                drawCalls++;
+                runStart = i;
+                runTexture = texture;
+            }
+        }
+
+        stream.fence();
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    // this frame's data can sit anywhere in the streaming buffer (which can even be a new buffer after
+    // growing), so the attributes get pointed at it every flush. the VAO and buffer have to be bound
+    private static void pointAttributes(long offsetBytes) {
+        int stride = 4 * Float.BYTES;
+        // Position attribute (location = 0)
+        glVertexAttribPointer(0, 2, GL_FLOAT, false, stride, offsetBytes);
+        glEnableVertexAttribArray(0);
+        // Texture coordinate attribute (location = 1)
+        glVertexAttribPointer(1, 2, GL_FLOAT, false, stride, offsetBytes + 2 * Float.BYTES);
+        glEnableVertexAttribArray(1);
+    }
+
+    public void dispose() {
+        if (vaoID != 0) {
+            stream.dispose();
+            GLState.deleteVertexArray(vaoID);
+            vaoID = 0;
+            stream = null;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package studiosoft.project;
+
+import java.util.Arrays;
+
+// the sprites a batch collected this frame, and their order grouped by texture. shared by SpriteBatch
+// and InstancedSpriteBatch, which only differ in what they write out for each sprite.
+// nothing allocates once the arrays have grown to fit the biggest frame so far
+final class SpriteList {
+    private static final int INITIAL_CAPACITY = 256;
+
+    Sprite[] sprites = new Sprite[INITIAL_CAPACITY];
+    float[] x = new float[INITIAL_CAPACITY];
+    float[] y = new float[INITIAL_CAPACITY];
+    int[] textureIDs = new int[INITIAL_CAPACITY];
+    int count;
+    // sprite indices grouped by texture, set by sort()
+    int[] order;
+    private final TextureSort textureSort = new TextureSort();
+
+    void clear() {
+        count = 0;
+    }
+
+    void add(Sprite sprite, float spriteX, float spriteY) {
+        if (count == sprites.length) {
+            int newCapacity = sprites.length * 2;
+            sprites = Arrays.copyOf(sprites, newCapacity);
+            x = Arrays.copyOf(x, newCapacity);
+            y = Arrays.copyOf(y, newCapacity);
+            textureIDs = Arrays.copyOf(textureIDs, newCapacity);
+        }
+        sprites[count] = sprite;
+        x[count] = spriteX;
+        y[count] = spriteY;
+        textureIDs[count] = sprite.getTextureAtlas().id;
+        count++;
+    }
+
+    int capacity() {
+        return sprites.length;
+    }
+
+    // groups the sprites by texture, keeping add order within a texture. order[0..count) afterwards
+    void sort() {
+        order = textureSort.sort(textureIDs, count);
+    }
+
+    // texture of the i-th sprite in sorted order
+    int textureAt(int i) {
+        return textureIDs[order[i]];
+    }
+}
@@ -0,0 +1,187 @@
+package studiosoft.project;
+
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.ARBBufferStorage.glBufferStorage;
+import static org.lwjgl.opengl.GL.getCapabilities;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.GL44.GL_MAP_PERSISTENT_BIT;
+
+// a GL buffer for geometry that's rewritten every frame (sprites, text, particles...), without the
+// CPU waiting on the GPU to finish with last frame's copy.
+//
+// with buffer storage (GL 4.4 or ARB_buffer_storage) the buffer is split into REGIONS slices that
+// stay mapped for good. each frame writes straight into the next slice, and a fence per slice makes
+// sure the GPU is done reading it before it comes round again. without it, data is written into
+// off-heap staging memory and uploaded into freshly orphaned storage each frame.
+//
+//     FloatBuffer dest = stream.map(floatCount);
+//     ...write...
+//     long offset = stream.unmap();   // byte offset of this frame's data in getBufferID()
+//     ...point attributes at offset, draw...
+//     stream.fence();
+//
+// the buffer id can change when it grows, so attribute pointers should be set after every unmap
+public class StreamingBuffer {
+    private static final int REGIONS = 3;
+    // -Dgame.persistentMapping=false forces the orphaning path, for drivers that misbehave
+    private static final boolean ALLOW_PERSISTENT = Boolean.parseBoolean(System.getProperty("game.persistentMapping", "true"));
+    private static final long FENCE_WAIT_NANOS = 1_000_000L;
+
+    private final int target;
+    private final boolean persistent;
+
+    private int bufferID;
+    private int regionBytes;
+    private int region;
+
+    // persistent path: one float view per mapped slice, and the fence guarding it
+    private FloatBuffer[] regionViews;
+    private final long[] fences = new long[REGIONS];
+
+    // orphaning path
+    private FloatBuffer staging;
+
+    private FloatBuffer mapped;
+
+    // needs a current GL context. regionBytes is the most one frame expects to write, it grows if needed
+    public StreamingBuffer(int target, int regionBytes) {
+        this.target = target;
+        GLCapabilities caps = getCapabilities();
+        this.persistent = ALLOW_PERSISTENT && (caps.OpenGL44 || caps.GL_ARB_buffer_storage);
+        allocate(roundUp(regionBytes));
+    }
+
+    public int getBufferID() {
+        return bufferID;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    // space for this frame's data, position 0 and limit floatCount
+    public FloatBuffer map(int floatCount) {
+        if (mapped != null) {
+            throw new IllegalStateException("StreamingBuffer is already mapped");
+        }
+        int bytes = floatCount * Float.BYTES;
+        if (bytes > regionBytes) {
+            release();
+            allocate(roundUp(Math.max(bytes, regionBytes * 2)));
+        }
+
+        if (persistent) {
+            region = (region + 1) % REGIONS;
+            waitFor(region);
+            mapped = regionViews[region];
+        } else {
+            mapped = staging;
+        }
+        mapped.clear().limit(floatCount);
+        return mapped;
+    }
+
+    // finishes the write, returns where in the buffer it ended up. leaves the buffer bound to the target
+    public long unmap() {
+        if (mapped == null) {
+            throw new IllegalStateException("StreamingBuffer isn't mapped");
+        }
+        FloatBuffer written = mapped;
+        mapped = null;
+
+        glBindBuffer(target, bufferID);
+        if (persistent) {
+            // coherent mapping, nothing to flush
+            return (long) region * regionBytes;
+        }
+        written.flip();
+        // orphan: the driver hands over fresh storage while draws still using the old one finish
+        glBufferData(target, regionBytes, GL_STREAM_DRAW);
+        glBufferSubData(target, 0, written);
+        return 0;
+    }
+
+    // call once the draws reading this frame's data have been issued
+    public void fence() {
+        if (persistent) {
+            if (fences[region] != 0) {
+                glDeleteSync(fences[region]);
+            }
+            fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+    }
+
+    public void dispose() {
+        release();
+    }
+
+    private void allocate(int regionBytes) {
+        this.regionBytes = regionBytes;
+        bufferID = glGenBuffers();
+        glBindBuffer(target, bufferID);
+        if (persistent) {
+            long totalBytes = (long) regionBytes * REGIONS;
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(target, totalBytes, flags);
+            ByteBuffer whole = glMapBufferRange(target, 0, totalBytes, flags);
+            if (whole == null) {
+                throw new RuntimeException("Could not persistently map streaming buffer");
+            }
+            regionViews = new FloatBuffer[REGIONS];
+            for (int i = 0; i < REGIONS; i++) {
+                regionViews[i] = whole.slice(i * regionBytes, regionBytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+        } else {
+            glBufferData(target, regionBytes, GL_STREAM_DRAW);
+            staging = MemoryUtil.memAllocFloat(regionBytes / Float.BYTES);
+        }
+        glBindBuffer(target, 0);
+    }
+
+    private void release() {
+        for (int i = 0; i < REGIONS; i++) {
+            waitFor(i);
+        }
+        if (bufferID != 0) {
+            // deleting a mapped buffer unmaps it
+            glDeleteBuffers(bufferID);
+            bufferID = 0;
+        }
+        regionViews = null;
+        if (staging != null) {
+            MemoryUtil.memFree(staging);
+            staging = null;
+        }
+    }
+
+    private void waitFor(int region) {
+        long fence = fences[region];
+        if (fence == 0) {
+            return;
+        }
+        int result;
+        do {
+            result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_WAIT_NANOS);
+        } while (result == GL_TIMEOUT_EXPIRED);
+        if (result == GL_WAIT_FAILED) {
+            throw new RuntimeException("glClientWaitSync failed on streaming buffer fence");
+        }
+        glDeleteSync(fence);
+        fences[region] = 0;
+    }
+
+    // keeps every region start aligned for any vertex attribute
+    private static int roundUp(int bytes) {
+        return (Math.max(bytes, 1) + 255) & ~255;
+    }
+}
@@ -11,6 +11,9 @@ import java.nio.ByteBuffer;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
 
+// a GL texture, or a region of one (what AtlasPacker hands out for each packed image). a region
+// shares its page's id, and every UV it gives out is already mapped onto the page, so sprites and
+// tiles cut from it work the same either way
 public class Texture {
 
     public final int id;
@@ -19,6 +22,14 @@ public class Texture {
     private final int width;
     private final int height;
     private final int tileSize;
+    // where this texture sits on the GL texture it's part of, and that texture's size. a whole
+    // texture is at 0, 0 with the page size the same as its own
+    private final int regionX;
+    private final int regionY;
+    private final int pageWidth;
+    private final int pageHeight;
+    // 8 floats per tile ID in the same order getTileUVs returns them, built on first use
+    private float[] tileUVTable;
 
     public Texture(URL textureSource, int tileSize) throws IOException {
         this.tileSize = tileSize;
@@ -36,21 +47,74 @@ public class Texture {
             // OpenGL now knows how much data to read from the buffer.
             buffer.flip();
 
-            id = glGenTextures();
-            bind();
+            id = upload(buffer, width, height);
+        }
+        this.regionX = 0;
+        this.regionY = 0;
+        this.pageWidth = width;
+        this.pageHeight = height;
+    }
 
-            glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
-            glTexParameteri(target, GL_TEXTURE_MIN_FILTER, GL_NEAREST); // Use NEAREST for sharp pixels in roguelikes
-            glTexParameteri(target, GL_TEXTURE_MAG_FILTER, GL_NEAREST); // Use NEAREST for sharp pixels
-            glTexParameteri(target, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-            glTexParameteri(target, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    // uploads already decoded RGBA pixels, width * height * 4 bytes from the buffer's position
+    public Texture(ByteBuffer rgba, int width, int height, int tileSize) {
+        this.id = upload(rgba, width, height);
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.regionX = 0;
+        this.regionY = 0;
+        this.pageWidth = width;
+        this.pageHeight = height;
+    }
 
-            glTexImage2D(target, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
-        }
+    // the width x height area of page starting at x, y (pixels from the top left)
+    public Texture(Texture page, int x, int y, int width, int height, int tileSize) {
+        this.id = page.id;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.regionX = page.regionX + x;
+        this.regionY = page.regionY + y;
+        this.pageWidth = page.pageWidth;
+        this.pageHeight = page.pageHeight;
+    }
+
+    private static int upload(ByteBuffer rgba, int width, int height) {
+        int id = createTextureObject();
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+        return id;
+    }
+
+    // a new texture with the parameters every texture here uses, bound on the active unit and
+    // ready for its glTexImage2D
+    static int createTextureObject() {
+        int id = glGenTextures();
+        GLState.bindTexture(id);
+
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST); // Use NEAREST for sharp pixels in roguelikes
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST); // Use NEAREST for sharp pixels
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        return id;
+    }
+
+    // wraps a texture that already exists on the GPU (or id 0 for code that only needs the
+    // dimensions, eg benchmarks and tools with no GL context)
+    public Texture(int id, int width, int height, int tileSize) {
+        this.id = id;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.regionX = 0;
+        this.regionY = 0;
+        this.pageWidth = width;
+        this.pageHeight = height;
     }
 
+    // on the active texture unit
     public void bind() {
-        glBindTexture(target, id);
+        GLState.bindTexture(id);
     }
 
     public int getTileSize(){
@@ -65,15 +129,48 @@ public class Texture {
         return height;
     }
 
+    // true when this is part of a bigger GL texture rather than all of it
+    public boolean isRegion(){
+        return width != pageWidth || height != pageHeight;
+    }
+
+    // page U/V of a pixel position inside this texture
+    public float getU(int x){
+        return (float) (regionX + x) / pageWidth;
+    }
+
+    public float getV(int y){
+        return (float) (regionY + y) / pageHeight;
+    }
+
     public float[] getTileUVs(int tileID){
+        float[] uvs = new float[8];
+        System.arraycopy(getTileUVTable(), tileID * 8, uvs, 0, 8);
+        return uvs;
+    }
+
+    // UVs for every tile, tile ID's 8 floats starting at tileID * 8. shared, don't modify it
+    public float[] getTileUVTable() {
+        if (tileUVTable == null) {
+            int tiles = (width / tileSize) * (height / tileSize);
+            float[] table = new float[tiles * 8];
+            for (int tileID = 0; tileID < tiles; tileID++) {
+                System.arraycopy(computeTileUVs(tileID), 0, table, tileID * 8, 8);
+            }
+            tileUVTable = table;
+        }
+        return tileUVTable;
+    }
+
+    private float[] computeTileUVs(int tileID){
         int tilesPerRow = width / tileSize;
         int xInd = tileID % tilesPerRow;
         int yInd = tileID / tilesPerRow;
 
-        float u0 = (float)(xInd * tileSize) / width;
-        float v0 = (float)(yInd * tileSize) / height;
-        float u1 = (float)((xInd+1) * tileSize) / width;
-        float v1 = (float)((yInd+1) * tileSize) / height;
+        float u0 = getU(xInd * tileSize);
+        float v0 = getV(yInd * tileSize);
+        float u1 = getU((xInd+1) * tileSize);
+        float v1 = getV((yInd+1) * tileSize);
 
         return new float[]{u0, v1, u1, v1, u1, v0, u0, v0};
     }
@@ -0,0 +1,131 @@
+package studiosoft.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// keeps already decoded images on disk so a launch after the first skips PNG inflate. files are
+// named by a hash of the PNG's bytes, so editing an image just makes a new entry. a hit is
+// FileChannel.map'd and the mapped pixels go to glTexImage2D as they are, nothing decoded or copied
+// on the Java side.
+//
+// file layout, little endian:
+//     int magic ('STEX'), int version, int width, int height, int format, 12 bytes reserved
+//     width * height * 4 bytes of RGBA, top row first
+//
+// format is always FORMAT_RGBA8 for now, it's there so a GPU compressed payload can be added without
+// a new version. safe to use from several threads, a file is written to a temp name and moved into place
+public class TextureCache {
+    private static final int MAGIC = 0x58455453; // "STEX" read as a little endian int
+    private static final int VERSION = 1;
+    public static final int FORMAT_RGBA8 = 0;
+    private static final int HEADER_BYTES = 32;
+    private static final String EXTENSION = ".tex";
+
+    private final Path directory;
+
+    public TextureCache(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // the image from the cache, or decoded from source and written to the cache for next time
+    public DecodedImage load(URL source) throws IOException {
+        byte[] png;
+        try (InputStream input = source.openStream()) {
+            png = input.readAllBytes();
+        }
+        Path file = directory.resolve(hash(png) + EXTENSION);
+
+        if (Files.exists(file)) {
+            DecodedImage cached = map(file);
+            if (cached != null) {
+                return cached;
+            }
+            // stale or broken, decode and write it again
+        }
+
+        DecodedImage image = DecodedImage.decodePNG(new ByteArrayInputStream(png));
+        try {
+            write(file, image);
+        } catch (IOException e) {
+            // the image is fine, it just won't be cached
+            System.err.println("Could not write texture cache file " + file + ": " + e.getMessage());
+        }
+        return image;
+    }
+
+    // null if the file isn't a cache file this version can read. the header is read and checked before
+    // anything is mapped, so a stale file isn't left mapped while load() writes over it. the pixels are
+    // paged in here, on the worker, so the GL thread's glTexImage2D never waits on the disk
+    private static DecodedImage map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+            int width = header.getInt(8);
+            int height = header.getInt(12);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(16) != FORMAT_RGBA8
+                    || width <= 0 || height <= 0 || size != HEADER_BYTES + (long) width * height * 4) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed, and is unmapped once nothing references
+            // it and it's garbage collected. DecodedImage.free() drops the image's reference
+            MappedByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, size - HEADER_BYTES);
+            pixels.load();
+            return new DecodedImage(pixels, width, height, false);
+        }
+    }
+
+    private void write(Path file, DecodedImage image) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(image.width).putInt(image.height).putInt(FORMAT_RGBA8);
+        header.clear();
+
+        Path temp = Files.createTempFile(directory, "tex", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // duplicate, so the image's own position isn't touched
+                ByteBuffer pixels = image.pixels.duplicate();
+                while (header.hasRemaining() || pixels.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, pixels});
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package studiosoft.project;
+
+import java.util.Arrays;
+
+// orders a batch's sprites so each texture's sprites sit together, keeping add order within a texture.
+// a counting sort over the few textures a frame uses, so unlike Arrays.sort on a long[] it never
+// needs a merge buffer. textures come out in the order they were first seen, not by id.
+// nothing allocates once the arrays have grown to fit the biggest frame so far
+final class TextureSort {
+    private int[] order = new int[256];
+    // per sprite: which slot of textures it landed in
+    private int[] slots = new int[256];
+    // distinct textures this sort, and where each one's run starts in order
+    private int[] textures = new int[8];
+    private int[] runStarts = new int[9];
+    private int textureCount;
+
+    // sprite indices grouped by texture, first count entries are valid
+    int[] sort(int[] textureOf, int count) {
+        if (order.length < count) {
+            order = new int[Math.max(count, order.length * 2)];
+            slots = new int[order.length];
+        }
+
+        textureCount = 0;
+        runStarts[0] = 0;
+        int lastTexture = 0;
+        int lastSlot = -1;
+        for (int i = 0; i < count; i++) {
+            int texture = textureOf[i];
+            // consecutive sprites usually share a texture, skip the lookup then
+            if (lastSlot < 0 || texture != lastTexture) {
+                lastSlot = slotOf(texture);
+                lastTexture = texture;
+            }
+            slots[i] = lastSlot;
+            runStarts[lastSlot + 1]++;
+        }
+
+        // counts to run starts
+        for (int s = 0; s < textureCount; s++) {
+            runStarts[s + 1] += runStarts[s];
+        }
+        // scatter, bumping each run's start as it fills. afterwards runStarts[s] is where run s ends
+        for (int i = 0; i < count; i++) {
+            order[runStarts[slots[i]]++] = i;
+        }
+        return order;
+    }
+
+    private int slotOf(int texture) {
+        for (int s = 0; s < textureCount; s++) {
+            if (textures[s] == texture) {
+                return s;
+            }
+        }
+        if (textureCount == textures.length) {
+            textures = Arrays.copyOf(textures, textureCount * 2);
+            runStarts = Arrays.copyOf(runStarts, textureCount * 2 + 1);
+        }
+        textures[textureCount] = texture;
+        runStarts[textureCount + 1] = 0;
+        return textureCount++;
+    }
+}
@@ -0,0 +1,101 @@
+package studiosoft.project;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL20.*;
+
+// one uniform of a ShaderProgram, location looked up once by createUniform. remembers the last
+// value it uploaded and skips setting the same value again, so things like a projection matrix
+// that never changes can be set every frame for free.
+// uniform values live in the program, so its program has to be bound when setting them
+public class Uniform {
+    private final String name;
+    private final int programId;
+    private final int location;
+
+    // last uploaded value, only the setter matching the uniform's type gets used
+    private boolean hasValue;
+    private final Matrix4f lastMatrix = new Matrix4f();
+    private final Vector4f lastVector = new Vector4f();
+    private int lastInt;
+    private float lastFloat;
+
+    Uniform(String name, int programId, int location) {
+        this.name = name;
+        this.programId = programId;
+        this.location = location;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    public void set(Matrix4f value) {
+        if (hasValue && lastMatrix.equals(value)) {
+            return;
+        }
+        checkBound();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer fb = stack.mallocFloat(16);
+            value.get(fb);
+            glUniformMatrix4fv(location, false, fb);
+        }
+        lastMatrix.set(value);
+        hasValue = true;
+    }
+
+    public void set(Vector4f value) {
+        if (hasValue && lastVector.equals(value)) {
+            return;
+        }
+        checkBound();
+        glUniform4f(location, value.x, value.y, value.z, value.w);
+        lastVector.set(value);
+        hasValue = true;
+    }
+
+    // also samplers (the texture unit)
+    public void set(int value) {
+        if (hasValue && lastInt == value) {
+            return;
+        }
+        checkBound();
+        glUniform1i(location, value);
+        lastInt = value;
+        hasValue = true;
+    }
+
+    public void set(boolean value) {
+        // A false is 0, a true is 1
+        set(value ? 1 : 0);
+    }
+
+    public void set(float value) {
+        if (hasValue && Float.floatToIntBits(lastFloat) == Float.floatToIntBits(value)) {
+            return;
+        }
+        checkBound();
+        glUniform1f(location, value);
+        lastFloat = value;
+        hasValue = true;
+    }
+
+    // the next set uploads whatever it's given
+    public void invalidate() {
+        hasValue = false;
+    }
+
+    private void checkBound() {
+        if (GLState.getProgram() != programId) {
+            throw new IllegalStateException("Setting uniform " + name + " while its shader program isn't bound");
+        }
+    }
+}
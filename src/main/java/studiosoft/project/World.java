@@ -1,68 +1,284 @@
 package studiosoft.project;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class World {
     private int nextEntityID = 0;
-    // this is the core data storage. it maps a component type
-    // to a map of entity IDs and their actual component instances.
-    private Map<Class<?>, Map<Integer, Object>> componentData = new HashMap<>();
+    // this is the core data storage. it maps a component type to a sparse set
+    // holding every instance of that component, indexed directly by entity ID.
+    private final Map<Class<?>, ComponentStorage<?>> componentData = new HashMap<>();
+    // same storages as an array, for the places that need to touch every type (eg destroyEntity)
+    private ComponentStorage<?>[] storageList = new ComponentStorage<?>[0];
+
+    // bumped every time an ID is destroyed, so handles to the old entity stop matching
+    private int[] generations = new int[64];
+    private final BitSet alive = new BitSet();
+    // destroyed IDs waiting to be handed out again, used as a stack
+    private int[] freeIDs = new int[64];
+    private int freeCount = 0;
+    // guards the ID allocator only, so command buffers on worker threads can reserve IDs
+    private final Object idLock = new Object();
+
+    private CommandBuffer[] commandBuffers = new CommandBuffer[0];
+
+    // every component write is stamped with this, see advanceChangeTick.
+    // atomic since systems running in parallel can each advance it
+    private final AtomicInteger changeTick = new AtomicInteger(1);
 
     public Entity createEntity() {
-        return new Entity(nextEntityID++, this);
+        Entity entity = reserveEntity();
+        activateEntity(entity.id, entity.generation);
+        return entity;
+    }
+
+    // hands out an ID without bringing the entity to life yet, see CommandBuffer.createEntity
+    Entity reserveEntity() {
+        synchronized (idLock) {
+            int entityID;
+            if (freeCount > 0) {
+                entityID = freeIDs[--freeCount];
+            } else {
+                entityID = nextEntityID++;
+                if (entityID == generations.length) {
+                    generations = Arrays.copyOf(generations, generations.length * 2);
+                }
+            }
+            return new Entity(entityID, generations[entityID], this);
+        }
+    }
+
+    void activateEntity(int entityID, int generation) {
+        if (generations[entityID] == generation) {
+            alive.set(entityID);
+        }
+    }
+
+    // a new buffer for deferred structural changes, applied on every flushCommands
+    public CommandBuffer createCommandBuffer() {
+        CommandBuffer buffer = new CommandBuffer(this);
+        commandBuffers = Arrays.copyOf(commandBuffers, commandBuffers.length + 1);
+        commandBuffers[commandBuffers.length - 1] = buffer;
+        return buffer;
+    }
+
+    // sync point: applies everything recorded in every command buffer, in buffer creation order.
+    // call it while no system is running
+    public void flushCommands() {
+        for (CommandBuffer buffer : commandBuffers) {
+            buffer.apply();
+        }
+    }
+
+    public boolean isAlive(int entityID) {
+        return alive.get(entityID);
+    }
+
+    // true only if the ID hasn't been destroyed and recycled since this generation was handed out
+    public boolean isAlive(int entityID, int generation) {
+        return alive.get(entityID) && generations[entityID] == generation;
+    }
+
+    public int getGeneration(int entityID) {
+        return generations[entityID];
+    }
+
+    // returns false if the handle was already stale
+    public boolean destroyEntity(Entity entity) {
+        if (!isAlive(entity.id, entity.generation)) {
+            return false;
+        }
+        destroyEntity(entity.id);
+        return true;
+    }
+
+    // strips every component off the entity and puts its ID up for reuse
+    public void destroyEntity(int entityID) {
+        if (!alive.get(entityID)) {
+            return;
+        }
+        for (ComponentStorage<?> storage : storageList) {
+            storage.remove(entityID);
+        }
+        alive.clear(entityID);
+
+        synchronized (idLock) {
+            generations[entityID]++;
+            if (freeCount == freeIDs.length) {
+                freeIDs = Arrays.copyOf(freeIDs, freeIDs.length * 2);
+            }
+            freeIDs[freeCount++] = entityID;
+        }
+    }
+
+    // number of live entities
+    public int getEntityCount() {
+        return alive.cardinality();
+    }
+
+    // typed fast accessor. systems should grab the storage once and keep it,
+    // then ComponentStorage.get(entityID) is an array lookup with no boxing or allocation
+    @SuppressWarnings("unchecked")
+    public <T> ComponentStorage<T> getStorage(Class<T> componentType) {
+        ComponentStorage<T> storage = (ComponentStorage<T>) componentData.get(componentType);
+        if (storage == null) {
+            storage = new ComponentStorage<>(this, componentType, storageList.length);
+            componentData.put(componentType, storage);
+            storageList = Arrays.copyOf(storageList, storageList.length + 1);
+            storageList[storageList.length - 1] = storage;
+        }
+        return storage;
+    }
+
+    // opt a component type into a struct-of-arrays layout. has to happen before any
+    // component of that type is added, usually right after the world is created
+    public <T, C extends ComponentColumns<T>> C registerColumns(Class<T> componentType, C columns) {
+        getStorage(componentType).setColumns(columns);
+        return columns;
+    }
+
+    // the columns registered for a component type, cast to their concrete class
+    public <C extends ComponentColumns<?>> C getColumns(Class<?> componentType, Class<C> columnsType) {
+        ComponentColumns<?> columns = getStorage(componentType).getColumns();
+        if (columns == null) {
+            throw new IllegalStateException(componentType.getSimpleName() + " is not stored as columns");
+        }
+        return columnsType.cast(columns);
+    }
+
+    // bulk iteration over a query, handing the action the columns of a columnar component
+    // and the row each matching entity lives at. keep the action in a field rather than
+    // writing a capturing lambda inline so it isn't re-allocated on every call
+    @SuppressWarnings("unchecked")
+    public <T, C extends ComponentColumns<T>> void forEach(Query query, Class<T> componentType,
+                                                          ColumnAction<C> action) {
+        ComponentStorage<T> storage = getStorage(componentType);
+        C columns = (C) storage.getColumns();
+        if (columns == null) {
+            throw new IllegalStateException(componentType.getSimpleName() + " is not stored as columns");
+        }
+        for (int i = 0; i < query.size(); i++) {
+            int entityID = query.getEntity(i);
+            action.accept(entityID, storage.indexOf(entityID), columns);
+        }
+    }
+
+    public int getChangeTick() {
+        return changeTick.get();
+    }
+
+    // moves the change tick on and returns the one everything so far was stamped with.
+    // a system that only wants to see what changed since its last run keeps the returned value:
+    //     int since = lastSeenTick;
+    //     lastSeenTick = world.advanceChangeTick();
+    //     ... storage.changedSince(entityID, since) ...
+    // writes made while it's processing get the new tick, so they're picked up next time round
+    public int advanceChangeTick() {
+        return changeTick.getAndIncrement();
+    }
+
+    public <T> void markChanged(int entityID, Class<T> componentType) {
+        ComponentStorage<?> components = componentData.get(componentType);
+        if (components != null) {
+            components.markChanged(entityID);
+        }
     }
 
     // actually associate the component with the entity
+    @SuppressWarnings("unchecked")
     public <T> void addComponent(int entityID, T component) {
-        // find the storage for this type of component, or create it if it doesn't exist.
-        componentData.computeIfAbsent(component.getClass(), k -> new HashMap<>());
-        // store the component instance, linked to the entity's ID.
-        componentData.get(component.getClass()).put(entityID, component);
+        // a dead ID would have components queries iterate but destroyEntity can never strip
+        if (!alive.get(entityID)) {
+            throw new IllegalStateException("Entity " + entityID + " has been destroyed");
+        }
+        // find the storage for this type of component, or create it if it doesn't exist,
+        // then store the component instance, linked to the entity's ID.
+        getStorage((Class<T>) component.getClass()).put(entityID, component);
     }
 
     // A helper method for systems to get all components of a certain type
+    @SuppressWarnings("unchecked")
     public <T> Collection<T> getComponents(Class<T> componentType) {
-        Map<Integer, Object> components = componentData.get(componentType);
+        ComponentStorage<T> components = (ComponentStorage<T>) componentData.get(componentType);
         if (components == null) {
             return Collections.emptyList(); // Return empty list if no entities have this component
         }
-        return (Collection<T>) components.values();
+        return components.asList();
     }
 
-
+    @SuppressWarnings("unchecked")
     public <T> Collection<T> getComponent(Class<T> componentType, int entityID) {
-        Map<Integer, Object> components = componentData.get(componentType);
-        if (components == null) {
+        ComponentStorage<T> components = (ComponentStorage<T>) componentData.get(componentType);
+        if (components == null || !components.has(entityID)) {
             return Collections.emptyList();
         }
-        return Collections.singleton((T) components.get(entityID));
+        return Collections.singleton(components.get(entityID));
     }
 
-    public List<Integer> queryEntitiesWith(Class<?>... componentTypes) {
-        List<Integer> matchingEntities = new ArrayList<>();
+    public boolean hasComponent(int entityID, Class<?> componentType) {
+        ComponentStorage<?> components = componentData.get(componentType);
+        return components != null && components.has(entityID);
+    }
 
-        // Find all entities that have the *first* component type
-        if (componentTypes.length == 0 || !componentData.containsKey(componentTypes[0])) {
-            return matchingEntities; // Return empty list if none exist
+    // register a persistent query, kept up to date incrementally from here on.
+    // meant to be called once (eg in a system's constructor), not every frame
+    public Query createQuery(Class<?>... componentTypes) {
+        if (componentTypes.length == 0) {
+            throw new IllegalArgumentException("A query needs at least one component type");
+        }
+        ComponentStorage<?>[] storages = new ComponentStorage<?>[componentTypes.length];
+        for (int i = 0; i < componentTypes.length; i++) {
+            storages[i] = getStorage(componentTypes[i]);
         }
 
-        // Start with a list of all entities that have the first component
-        Set<Integer> entityCandidates = new HashSet<>(componentData.get(componentTypes[0]).keySet());
+        Query query = new Query(storages);
+        for (ComponentStorage<?> storage : storages) {
+            storage.addQuery(query);
+        }
+        query.populate();
+        return query;
+    }
 
-        // For the rest of the component types, remove any entities that don't have them
-        for (int i = 1; i < componentTypes.length; i++) {
-            Map<Integer, Object> components = componentData.get(componentTypes[i]);
-            if (components == null) {
-                return Collections.emptyList(); // If any component type has no entities, no match is possible
+    // builds a fresh list on every call, systems should prefer createQuery
+    public List<Integer> queryEntitiesWith(Class<?>... componentTypes) {
+        List<Integer> matchingEntities = new ArrayList<>();
+        if (componentTypes.length == 0) {
+            return matchingEntities;
+        }
+
+        // walk the smallest storage and check the rest, so the cost is bounded by the rarest component
+        ComponentStorage<?>[] storages = new ComponentStorage<?>[componentTypes.length];
+        ComponentStorage<?> smallest = null;
+        for (int i = 0; i < componentTypes.length; i++) {
+            storages[i] = componentData.get(componentTypes[i]);
+            if (storages[i] == null) {
+                return matchingEntities; // If any component type has no entities, no match is possible
+            }
+            if (smallest == null || storages[i].size() < smallest.size()) {
+                smallest = storages[i];
             }
-            entityCandidates.retainAll(components.keySet()); // Keep only entities that are also in the next set
         }
 
-        matchingEntities.addAll(entityCandidates);
+        for (int i = 0; i < smallest.size(); i++) {
+            int entityID = smallest.getEntity(i);
+            boolean matches = true;
+            for (ComponentStorage<?> storage : storages) {
+                if (!storage.has(entityID)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                matchingEntities.add(entityID);
+            }
+        }
         return matchingEntities;
     }
 
     public <T> void removeComponent(int entityID, Class<T> componentType){
-        /// TODO: implement this
+        ComponentStorage<?> components = componentData.get(componentType);
+        if (components != null) {
+            components.remove(entityID);
+        }
     }
 }
@@ -1,12 +1,32 @@
 package studiosoft.project.components;
 
+// GPU side of a TilemapRenderable. the map is split into CHUNK_SIZE x CHUNK_SIZE tile chunks with a
+// mesh each, so only chunks on screen get drawn and an edit only rebuilds the chunks it touched.
+// the chunks are laid out by TilemapRenderSystem the first time it sees the tilemap
 public class LevelRenderData {
-    // Vertex Array Obj ID
-    public int vaoID;
+    public static final int CHUNK_SIZE = 32;
 
-    // Vertex Buffer Obj ID
-    public int vboID;
+    // row major, chunksX * chunksY
+    public TilemapChunk[] chunks;
+    public int chunksX;
+    public int chunksY;
 
-    // num of verts in vbo
-    public int vertexCount;
+    public TilemapChunk getChunk(int chunkX, int chunkY) {
+        return chunks[chunkY * chunksX + chunkX];
+    }
+
+    // after editing tileMap[tileY][tileX], so just that chunk is rebuilt
+    public void markTileChanged(int tileX, int tileY) {
+        if (chunks != null) {
+            getChunk(tileX / CHUNK_SIZE, tileY / CHUNK_SIZE).dirty = true;
+        }
+    }
+
+    public void markAllChanged() {
+        if (chunks != null) {
+            for (TilemapChunk chunk : chunks) {
+                chunk.dirty = true;
+            }
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package studiosoft.project.components;
+
+import studiosoft.project.ComponentColumns;
+
+import java.util.Arrays;
+
+// columnar layout for Position, x and y packed into their own float arrays.
+// prevX/prevY hold where each entity was at the start of the current simulation tick,
+// so rendering can interpolate between ticks (see PositionHistorySystem)
+public class PositionColumns implements ComponentColumns<Position> {
+    public float[] x = new float[0];
+    public float[] y = new float[0];
+    public float[] prevX = new float[0];
+    public float[] prevY = new float[0];
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity <= x.length) {
+            return;
+        }
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+    }
+
+    // a freshly added (or replaced) position has no history, so it doesn't interpolate in from anywhere
+    @Override
+    public void write(int row, Position component) {
+        x[row] = component.x;
+        y[row] = component.y;
+        prevX[row] = component.x;
+        prevY[row] = component.y;
+    }
+
+    @Override
+    public void move(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        prevX[to] = prevX[from];
+        prevY[to] = prevY[from];
+    }
+
+    @Override
+    public Position read(int row) {
+        return new Position(x[row], y[row]);
+    }
+
+    // copy the current positions of the first `rows` rows over the previous ones
+    public void savePrevious(int rows) {
+        System.arraycopy(x, 0, prevX, 0, rows);
+        System.arraycopy(y, 0, prevY, 0, rows);
+    }
+
+    public float interpolateX(int row, float alpha) {
+        return prevX[row] + (x[row] - prevX[row]) * alpha;
+    }
+
+    public float interpolateY(int row, float alpha) {
+        return prevY[row] + (y[row] - prevY[row]) * alpha;
+    }
+}
@@ -0,0 +1,29 @@
+package studiosoft.project.components;
+
+// one square piece of a tilemap's mesh, see LevelRenderData
+public class TilemapChunk {
+    // Vertex Array Obj ID
+    public int vaoID;
+
+    // Vertex Buffer Obj ID
+    public int vboID;
+
+    // num of verts in vbo
+    public int vertexCount;
+
+    // tiles covered, chunks on the right/bottom edge can be smaller than CHUNK_SIZE
+    public int tileX;
+    public int tileY;
+    public int tilesWide;
+    public int tilesHigh;
+
+    // mesh is out of date with the tilemap, rebuilt next time the chunk is on screen
+    public boolean dirty = true;
+
+    public TilemapChunk(int tileX, int tileY, int tilesWide, int tilesHigh) {
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.tilesWide = tilesWide;
+        this.tilesHigh = tilesHigh;
+    }
+}
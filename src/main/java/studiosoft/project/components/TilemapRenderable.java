@@ -1,21 +1,62 @@
 package studiosoft.project.components;
 
+import java.util.Arrays;
+
+// change single tiles with setTile, TilemapRenderSystem then patches just those tiles' vertices.
+// past MAX_PENDING_EDITS unrendered edits it stops keeping them and has the whole map rebuilt instead,
+// so the list stays bounded with no renderer draining it (HeadlessMain, a server)
+// after bigger edits to tileMap in place, call World.markChanged(entityID, TilemapRenderable.class)
+// so TilemapRenderSystem knows to rebuild it, or LevelRenderData.markTileChanged for a few tiles
 public class TilemapRenderable {
+    public static final int MAX_PENDING_EDITS = 1024;
+
     public int[][] tileMap;
     public int tileWidth;
     public int tileHeight;
     public int tilemapWidth;
     public int tilemapHeight;
-    public boolean isDirty;
 
-    public TilemapRenderable(int[][] tileMap, int tileWidth, int tileHeight, int tilemapWidth, int tilemapHeight,
-                             boolean isDirty) {
+    // tiles changed through setTile since the renderer last caught up, as y * tilemapWidth + x
+    public int[] pendingEdits = new int[16];
+    public int pendingEditCount;
+    // set instead of keeping more edits, the renderer rebuilds the whole map and clears it
+    public boolean pendingRebuild;
+
+    public TilemapRenderable(int[][] tileMap, int tileWidth, int tileHeight, int tilemapWidth, int tilemapHeight) {
         this.tileWidth = tileWidth;
         this.tileHeight = tileHeight;
         this.tilemapWidth = tilemapWidth;
         this.tilemapHeight = tilemapHeight;
         this.tileMap = tileMap;
-        this.isDirty = isDirty;
+    }
+
+    // -1 for no tile
+    public void setTile(int x, int y, int tileID) {
+        if (x < 0 || y < 0 || x >= tilemapWidth || y >= tilemapHeight) {
+            throw new IllegalArgumentException("Tile " + x + "," + y + " is outside the "
+                    + tilemapWidth + "x" + tilemapHeight + " tilemap");
+        }
+        if (tileMap[y][x] == tileID) {
+            return;
+        }
+        tileMap[y][x] = tileID;
+        if (pendingRebuild) {
+            // the whole map is going up anyway
+            return;
+        }
+        if (pendingEditCount == MAX_PENDING_EDITS) {
+            pendingEditCount = 0;
+            pendingRebuild = true;
+            return;
+        }
+        if (pendingEditCount == pendingEdits.length) {
+            pendingEdits = Arrays.copyOf(pendingEdits, pendingEdits.length * 2);
+        }
+        pendingEdits[pendingEditCount++] = y * tilemapWidth + x;
+    }
+
+    public int getTile(int x, int y) {
+        return tileMap[y][x];
     }
 
     //call thsi constructure for test setup
@@ -40,6 +81,5 @@ public class TilemapRenderable {
         tileHeight = 16;
         tilemapWidth = 16;
         tilemapHeight = 16;
-        isDirty = true;
     }
 }
@@ -0,0 +1,12 @@
+package studiosoft.project.components;
+
+// GPU side of a TilemapRenderable when it's drawn by TilemapTextureRenderSystem: the tile IDs
+// as a GL_R16UI texture instead of a mesh
+public class TilemapTextureData {
+    // texture holding one tile ID per texel
+    public int indexTextureID;
+
+    // size the texture was made at, in tiles
+    public int width;
+    public int height;
+}
@@ -0,0 +1,41 @@
+package studiosoft.project.profiling;
+
+import java.lang.management.ManagementFactory;
+
+// counts the bytes the current thread allocates between begin() and end(), through the HotSpot
+// ThreadMXBean. used to check that a steady state frame/tick makes no garbage at all:
+//     guard.begin(); runFrame(); if (guard.end() > 0) ...
+// only counts the calling thread, work handed to other threads isn't included
+public class AllocationGuard {
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private long startBytes;
+
+    public static boolean isSupported() {
+        return THREADS != null;
+    }
+
+    public AllocationGuard() {
+        if (THREADS == null) {
+            throw new IllegalStateException("Thread allocation counting isn't supported on this JVM");
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public void begin() {
+        startBytes = THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    // bytes allocated since begin()
+    public long end() {
+        return THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            return bean;
+        }
+        return null;
+    }
+}
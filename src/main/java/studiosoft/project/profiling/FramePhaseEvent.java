@@ -0,0 +1,37 @@
+package studiosoft.project.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// a part of the frame outside the systems, eg buffer swap or event polling
+@Name("studiosoft.FramePhase")
+@Label("Frame Phase")
+@Category({"Game", "Frame"})
+@Description("A timed part of the main loop outside of the ECS systems")
+public class FramePhaseEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(FramePhaseEvent.class);
+
+    @Label("Phase")
+    public String phase;
+
+    // null when no recording is listening, so the main loop doesn't make garbage for nothing
+    public static FramePhaseEvent start(String phase) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        FramePhaseEvent event = new FramePhaseEvent();
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    public static void finish(FramePhaseEvent event) {
+        if (event != null) {
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package studiosoft.project.profiling;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// rolling per-phase timings for the last N frames. each phase (a system, the buffer swap, ...)
+// gets a ring buffer of durations, and p50/p99/max are worked out from it on demand.
+// recording a sample is a couple of array writes, nothing allocates after construction.
+//
+// each phase should only ever be recorded from one thread at a time (true for systems, which
+// run once per update, and for the main loop phases)
+public class FrameProfiler {
+    private static final int MAX_PHASES = 64;
+
+    private final int historySize;
+    private final String[] names = new String[MAX_PHASES];
+    private final long[][] samples = new long[MAX_PHASES][];
+    // next slot to write, and how many slots hold real samples
+    private final int[] cursor = new int[MAX_PHASES];
+    private final int[] filled = new int[MAX_PHASES];
+    private int phaseCount;
+
+    // scratch for sorting one phase's samples when reporting
+    private final long[] sortScratch;
+
+    public FrameProfiler(int historySize) {
+        this.historySize = historySize;
+        this.sortScratch = new long[historySize];
+    }
+
+    // returns the id to record against. registering the same name twice gives back the same id
+    public synchronized int registerPhase(String name) {
+        for (int i = 0; i < phaseCount; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        if (phaseCount == MAX_PHASES) {
+            throw new IllegalStateException("Too many profiler phases, max is " + MAX_PHASES);
+        }
+        names[phaseCount] = name;
+        samples[phaseCount] = new long[historySize];
+        return phaseCount++;
+    }
+
+    public void record(int phase, long durationNanos) {
+        long[] ring = samples[phase];
+        ring[cursor[phase]] = durationNanos;
+        cursor[phase] = (cursor[phase] + 1) % historySize;
+        if (filled[phase] < historySize) {
+            filled[phase]++;
+        }
+    }
+
+    // convenience for: long start = System.nanoTime(); ...; profiler.end(phase, start);
+    public void end(int phase, long startNanos) {
+        record(phase, System.nanoTime() - startNanos);
+    }
+
+    public int getPhaseCount() {
+        return phaseCount;
+    }
+
+    public String getPhaseName(int phase) {
+        return names[phase];
+    }
+
+    // percentile (0-100) over the recorded history, in nanoseconds
+    public synchronized long percentile(int phase, double percentile) {
+        int count = filled[phase];
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(samples[phase], 0, sortScratch, 0, count);
+        Arrays.sort(sortScratch, 0, count);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sortScratch[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public long max(int phase) {
+        long max = 0;
+        long[] ring = samples[phase];
+        for (int i = 0; i < filled[phase]; i++) {
+            max = Math.max(max, ring[i]);
+        }
+        return max;
+    }
+
+    public void dump(PrintStream out) {
+        out.printf("%-24s %10s %10s %10s  (ms, last %d samples)%n", "phase", "p50", "p99", "max", historySize);
+        for (int phase = 0; phase < phaseCount; phase++) {
+            out.printf("%-24s %10.3f %10.3f %10.3f%n", names[phase],
+                    percentile(phase, 50) / 1e6, percentile(phase, 99) / 1e6, max(phase) / 1e6);
+        }
+    }
+}
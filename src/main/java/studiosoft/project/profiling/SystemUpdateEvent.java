@@ -0,0 +1,21 @@
+package studiosoft.project.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// one ECSSystem.update call. shows up in JFR recordings (eg jcmd <pid> JFR.start) under Game > Systems
+@Name("studiosoft.SystemUpdate")
+@Label("System Update")
+@Category({"Game", "Systems"})
+@Description("A single ECSSystem.update call")
+public class SystemUpdateEvent extends Event {
+    @Label("System")
+    public String system;
+
+    @Label("Entity Count")
+    @Description("Entities the system processed in this update")
+    public int entityCount;
+}
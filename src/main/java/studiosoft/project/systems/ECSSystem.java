@@ -2,4 +2,9 @@ package studiosoft.project.systems;
 
 public interface ECSSystem {
     public void update(float deltaTime);
+
+    // how many entities the last update worked on, reported alongside its timing when profiling
+    default int getEntityCount() {
+        return 0;
+    }
 }
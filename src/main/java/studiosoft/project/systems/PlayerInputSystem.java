@@ -2,45 +2,88 @@ package studiosoft.project.systems;
 import studiosoft.project.*;
 import studiosoft.project.components.*;
 
-import java.util.Collection;
-import java.util.List;
+import java.util.Set;
 
-import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_A;
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_D;
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_S;
-import static org.lwjgl.glfw.GLFW.GLFW_PRESS;
-import static org.lwjgl.glfw.GLFW.glfwGetKey;
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_W;
 
-public class PlayerInputSystem implements ECSSystem {
+public class PlayerInputSystem implements ScheduledSystem {
     // The system knows about the world so it can query for data.
     private World world;
-    private long window;
+    private InputSource input;
+    private ComponentStorage<PlayerInput> playerInputs;
+    private ComponentStorage<Position> positions;
+    private Query players;
+
+    // direction for this update, read from the keyboard once rather than per entity
+    private float moveX;
+    private float moveY;
+    private float deltaTime;
+    private final ColumnAction<PositionColumns> movePlayer = this::movePlayer;
 
     public PlayerInputSystem(World world, long window) {
+        this(world, new GlfwInputSource(window));
+    }
+
+    public PlayerInputSystem(World world, InputSource input) {
         this.world = world;
-        this.window = window;
+        this.input = input;
+        this.playerInputs = world.getStorage(PlayerInput.class);
+        this.positions = world.getStorage(Position.class);
+        this.players = world.createQuery(PlayerInput.class, Position.class);
+    }
+
+    @Override
+    public Set<Class<?>> getReads() {
+        return Set.of(PlayerInput.class);
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return Set.of(Position.class);
+    }
+
+    // depends on where the input comes from, a real window has to be read on the main thread
+    @Override
+    public boolean runsOnMainThread() {
+        return input.requiresMainThread();
     }
 
+    @Override
+    public int getEntityCount() {
+        return players.size();
+    }
+
+    @Override
     public void update(float deltaTime) {
-        List<Integer> entitiesPlayers = world.queryEntitiesWith(PlayerInput.class, Position.class);
-
-        for(Integer entityID : entitiesPlayers){
-            Position pos = world.getComponent(Position.class, entityID).stream().findFirst().get();
-            PlayerInput playerInput = world.getComponent(PlayerInput.class, entityID).stream().findFirst().get();
-
-            if (glfwGetKey(window, GLFW_KEY_W) == GLFW_PRESS) {
-                pos.y -= playerInput.moveSpeed * deltaTime;
-            }
-            if (glfwGetKey(window, GLFW_KEY_S) == GLFW_PRESS) {
-                pos.y += playerInput.moveSpeed * deltaTime;
-            }
-            if (glfwGetKey(window, GLFW_KEY_A) == GLFW_PRESS) {
-                pos.x -= playerInput.moveSpeed * deltaTime;
-            }
-            if (glfwGetKey(window, GLFW_KEY_D) == GLFW_PRESS) {
-                pos.x += playerInput.moveSpeed * deltaTime;
-            }
+        moveX = 0f;
+        moveY = 0f;
+        if (input.isKeyDown(GLFW_KEY_W)) {
+            moveY -= 1f;
+        }
+        if (input.isKeyDown(GLFW_KEY_S)) {
+            moveY += 1f;
+        }
+        if (input.isKeyDown(GLFW_KEY_A)) {
+            moveX -= 1f;
+        }
+        if (input.isKeyDown(GLFW_KEY_D)) {
+            moveX += 1f;
         }
+        if (moveX == 0f && moveY == 0f) {
+            return;
+        }
+
+        this.deltaTime = deltaTime;
+        world.forEach(players, Position.class, movePlayer);
+    }
+
+    private void movePlayer(int entityID, int row, PositionColumns pos) {
+        float step = playerInputs.get(entityID).moveSpeed * deltaTime;
+        pos.x[row] += moveX * step;
+        pos.y[row] += moveY * step;
+        positions.markChangedAt(row);
     }
 }
@@ -0,0 +1,40 @@
+package studiosoft.project.systems;
+
+import studiosoft.project.ComponentStorage;
+import studiosoft.project.World;
+import studiosoft.project.components.Position;
+import studiosoft.project.components.PositionColumns;
+
+import java.util.Set;
+
+// runs first in every simulation tick and remembers where everything started,
+// so the renderer can blend between the last two ticks
+public class PositionHistorySystem implements ScheduledSystem {
+    private ComponentStorage<Position> positions;
+    private PositionColumns positionColumns;
+
+    public PositionHistorySystem(World world) {
+        this.positions = world.getStorage(Position.class);
+        this.positionColumns = world.getColumns(Position.class, PositionColumns.class);
+    }
+
+    @Override
+    public Set<Class<?>> getReads() {
+        return Set.of();
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return Set.of(Position.class);
+    }
+
+    @Override
+    public int getEntityCount() {
+        return positions.size();
+    }
+
+    @Override
+    public void update(float deltaTime) {
+        positionColumns.savePrevious(positions.size());
+    }
+}
@@ -1,139 +1,164 @@
 package studiosoft.project.systems;
 
 import org.joml.Matrix4f;
-import org.lwjgl.BufferUtils;
+import org.joml.primitives.Rectanglef;
 import studiosoft.project.*;
 import studiosoft.project.components.*;
 
-import java.nio.FloatBuffer;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL11.glEnd;
 import static org.lwjgl.opengl.GL11.glTexCoord2f;
 import static org.lwjgl.opengl.GL11.glVertex2f;
-import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
-
-public class RenderSystem implements ECSSystem {
+
+public class RenderSystem implements ScheduledSystem {
     private World world;
     private Camera camera;
     private final int windowWidth;
     private final int windowHeight;
 
     private ShaderProgram shaderProgram;
-    private int vboID;
-    private int vaoID;
-    private int vertexCount;
-    private FloatBuffer vertexBuffer;
-
-    public RenderSystem(World world, Camera camera, int windowWidth, int windowHeight, ShaderProgram shaderProgram) {
+    // sprite quads are written out in world space, so the model matrix stays at identity
+    private final Matrix4f identity = new Matrix4f();
+    // looked up on the first submit
+    private Uniform modelUniform;
+    private Uniform uvRemappingUniform;
+    private ComponentStorage<Renderable> renderables;
+    private ComponentStorage<Position> positions;
+    private PositionColumns positionColumns;
+    private Query entitiesToRender;
+
+    // only entities the grid finds inside the camera view get drawn
+    private SpatialGrid spatialGrid;
+    private final Rectanglef viewBounds = new Rectanglef();
+    private final IntConsumer collectVisible = this::collectVisible;
+
+    // draw list for the current frame, filled on the CPU side before anything is sent to GL,
+    // then drawn with one call per texture
+    private final SpriteBatch spriteBatch = new SpriteBatch();
+    // set through useInstancing, the GPU expands the quads instead and spriteBatch goes unused
+    private InstancedSpriteBatch instancedBatch;
+    private ShaderProgram instancedShader;
+
+    // sprites are drawn part way between the last two simulation ticks
+    private FixedTimestep timestep;
+    private float alpha;
+
+    public RenderSystem(World world, Camera camera, int windowWidth, int windowHeight, ShaderProgram shaderProgram,
+                        SpatialGrid spatialGrid, FixedTimestep timestep) {
         this.world = world;
         this.camera = camera;
         this.windowWidth = windowWidth;
         this.windowHeight = windowHeight;
-        this.shaderProgram = shaderProgram;
+        this.shaderProgram = FrameUniforms.requireBlock(shaderProgram);
+        this.renderables = world.getStorage(Renderable.class);
+        this.positions = world.getStorage(Position.class);
+        this.positionColumns = world.getColumns(Position.class, PositionColumns.class);
+        this.entitiesToRender = world.createQuery(Renderable.class, Position.class);
+        this.spatialGrid = spatialGrid;
+        this.timestep = timestep;
+        // the batch makes its buffers on the first submit, so the CPU side works without a GL context
+    }
 
-        createInitialVBO();
+    public Sprite createSprite(Texture srcTex, int tileU, int tileV, int tileSpanX, int tileSpanY){
+        return new Sprite(srcTex, tileU, tileV, tileSpanX, tileSpanY);
     }
 
-    private void createInitialVBO() {
-        /// triangle
-        // create single VBO we can manipulate when drawing sprites
-        vertexBuffer = BufferUtils.createFloatBuffer(6 * 4);
-
-        float[] uvs = {0f,0f,1f,0f,1f,1f,0f,1f};
-
-        // Vertex data for a quad, ordered for two triangles
-        // Triangle 1: Top-left, Bottom-left, Bottom-right
-        // Triangle 2: Bottom-right, Top-right, Top-left
-        float[] verts = {
-                // Position      // UVs
-                0f, 1f,          uvs[6], uvs[7], // Top-left
-                0f, 0f,          uvs[0], uvs[1], // Bottom-left
-                1f, 0f,          uvs[2], uvs[3], // Bottom-right
-
-                1f, 0f,          uvs[2], uvs[3], // Bottom-right
-                1f, 1f,          uvs[4], uvs[5], // Top-right
-                0f, 1f,          uvs[6], uvs[7]  // Top-left
-        };
-        vertexBuffer.put(verts);
-        vertexBuffer.flip();
-
-        // Generate and bind VAO
-        if (vaoID == 0) {
-            vaoID = glGenVertexArrays();
+    // CPU side of the frame: cull against the camera and fill the draw list. makes no GL calls.
+    // returns the number of sprites that will be drawn
+    public int collectVisible() {
+        if (instancedBatch != null) {
+            instancedBatch.begin();
+        } else {
+            spriteBatch.begin();
         }
-        glBindVertexArray(vaoID);
+        alpha = timestep.getAlpha();
 
-        // Generate and bind VBO
-        if (vboID == 0) {
-            vboID = glGenBuffers();
-        }
-        glBindBuffer(GL_ARRAY_BUFFER, vboID);
-        glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
+        // cull against what the camera can actually see
+        camera.getViewBounds(windowWidth, windowHeight, viewBounds);
+        spatialGrid.queryRect(viewBounds.minX, viewBounds.minY, viewBounds.maxX, viewBounds.maxY, collectVisible);
+        return getEntityCount();
+    }
 
-        // Configure vertex attributes
-        int stride = 4 * Float.BYTES;
-        // Position attribute (location = 0)
-        glVertexAttribPointer(0, 2, GL_FLOAT, false, stride, 0);
-        glEnableVertexAttribArray(0);
+    private void collectVisible(int entityID) {
+        if (!entitiesToRender.contains(entityID)) {
+            return;
+        }
+        int row = positions.indexOf(entityID);
+        Sprite sprite = renderables.get(entityID).getSprite();
+        float x = positionColumns.interpolateX(row, alpha);
+        float y = positionColumns.interpolateY(row, alpha);
+        if (instancedBatch != null) {
+            instancedBatch.add(sprite, x, y);
+        } else {
+            spriteBatch.add(sprite, x, y);
+        }
+    }
 
-        // Texture coordinate attribute (location = 1)
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, stride, 2 * Float.BYTES);
-        glEnableVertexAttribArray(1);
+    // draw sprites with glDrawArraysInstanced. the shader is built from sprite_instanced.vert and
+    // needs its texture_sampler uniform set already
+    public void useInstancing(ShaderProgram instancedShader) {
+        this.instancedShader = FrameUniforms.requireBlock(instancedShader);
+        this.instancedBatch = new InstancedSpriteBatch();
+    }
 
-        // Unbind VAO to be safe
-        glBindVertexArray(0);
+    public SpriteBatch getSpriteBatch() {
+        return spriteBatch;
+    }
 
-        vertexCount = 6;
+    public InstancedSpriteBatch getInstancedBatch() {
+        return instancedBatch;
     }
 
-    public Sprite createSprite(Texture srcTex, int tileU, int tileV, int tileSpanX, int tileSpanY){
-        return new Sprite(srcTex, tileU, tileV, tileSpanX, tileSpanY);
+    // GL side of the frame: one draw per texture in the draw list
+    private void submit() {
+        if (instancedBatch != null) {
+            // view comes from the shared FrameData block like every other shader
+            instancedShader.bind();
+            instancedBatch.flush();
+            // put back the shader the rest of the frame expects
+            shaderProgram.bind();
+            return;
+        }
+        if (modelUniform == null) {
+            modelUniform = shaderProgram.getUniform("model");
+            uvRemappingUniform = shaderProgram.getUniform("useUVRemapping");
+        }
+        // an earlier system may have left its own shader bound
+        shaderProgram.bind();
+        modelUniform.set(identity);
+        uvRemappingUniform.set(false);
+        spriteBatch.flush();
     }
 
     @Override
-    public void update(float deltaTime){
-        List<Integer> entitiesToRender = world.queryEntitiesWith(Renderable.class, Position.class);
-
-        // Bind the shared geometry ONCE before the loop
-        glBindVertexArray(vaoID);
-
-        for(Integer entityID : entitiesToRender){
-            Sprite rendSprite = world.getComponent(Renderable.class, entityID).stream().findFirst().get().getSprite();
-            Position pos = world.getComponent(Position.class, entityID).stream().findFirst().get();
-
-            float spriteWidth = rendSprite.getSizeX();
-            float spriteHeight = rendSprite.getSizeY();
-
-            // build the model matrix for this specific sprite
-            Matrix4f modelMatrix = new Matrix4f()
-                    .translate(pos.x, pos.y, 0) // move it to the entity's position
-                    .scale(spriteWidth, spriteHeight, 1);   // scale the 1x1 quad to the correct pixel size
-
-
-            // send this unique matrix to the shader
-            shaderProgram.setUniform("model", modelMatrix);
-
-            // send off sprite UVs and ensure that it can do the UV remapping
-            shaderProgram.setUniform("useUVRemapping", true);
-            shaderProgram.setUniform("spriteUVs", rendSprite.getUVsAsVector());
+    public Set<Class<?>> getReads() {
+        return Set.of(Renderable.class, Position.class, SpatialGrid.class);
+    }
 
-            rendSprite.getTextureAtlas().bind();
+    @Override
+    public Set<Class<?>> getWrites() {
+        return Set.of();
+    }
 
-            glDrawArrays(GL_TRIANGLES, 0, vertexCount);
+    @Override
+    public boolean runsOnMainThread() {
+        return true;
+    }
 
-        }
+    // sprites that survived culling this frame
+    @Override
+    public int getEntityCount() {
+        return instancedBatch != null ? instancedBatch.size() : spriteBatch.size();
+    }
 
-        // Unbind the VAO once after the loop is done
-        glBindVertexArray(0);
+    @Override
+    public void update(float deltaTime){
+        collectVisible();
+        submit();
 
         /*Collection<Renderable> renderables = world.getComponents(Renderable.class);
 
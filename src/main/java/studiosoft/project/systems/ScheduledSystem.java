@@ -0,0 +1,19 @@
+package studiosoft.project.systems;
+
+import java.util.Set;
+
+// a system that declares which component types it touches, so SystemScheduler can work out
+// which systems are independent and run them at the same time.
+// shared non-component state (eg a SpatialGrid) can be declared by its class too
+public interface ScheduledSystem extends ECSSystem {
+    // component types this system only reads
+    Set<Class<?>> getReads();
+
+    // component types this system writes to (or adds/removes)
+    Set<Class<?>> getWrites();
+
+    // anything calling GL or GLFW has to stay on the thread that owns the context
+    default boolean runsOnMainThread() {
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package studiosoft.project.systems;
+
+import studiosoft.project.*;
+import studiosoft.project.components.*;
+
+import java.util.Set;
+
+// keeps a SpatialGrid in step with entity positions. only entities whose Position (or Renderable,
+// which decides their size) changed since the last update get re-filed
+public class SpatialIndexSystem implements ScheduledSystem {
+    private World world;
+    private SpatialGrid grid;
+    private ComponentStorage<Position> positions;
+    private ComponentStorage<Renderable> renderables;
+    private PositionColumns positionColumns;
+    private int lastSeenTick = 0;
+    // entities re-filed by the last update
+    private int reindexed;
+
+    public SpatialIndexSystem(World world, SpatialGrid grid) {
+        this.world = world;
+        this.grid = grid;
+        this.positions = world.getStorage(Position.class);
+        this.renderables = world.getStorage(Renderable.class);
+        this.positionColumns = world.getColumns(Position.class, PositionColumns.class);
+
+        // removals only happen at a flush, when no system is running
+        positions.addRemoveListener(grid::remove);
+    }
+
+    @Override
+    public Set<Class<?>> getReads() {
+        return Set.of(Position.class, Renderable.class);
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return Set.of(SpatialGrid.class);
+    }
+
+    @Override
+    public int getEntityCount() {
+        return reindexed;
+    }
+
+    @Override
+    public void update(float deltaTime) {
+        reindexed = 0;
+        int since = lastSeenTick;
+        lastSeenTick = world.advanceChangeTick();
+
+        for (int row = 0; row < positions.size(); row++) {
+            if (positions.getChangeTickAt(row) > since) {
+                index(positions.getEntity(row), row);
+            }
+        }
+        for (int i = 0; i < renderables.size(); i++) {
+            int entityID = renderables.getEntity(i);
+            if (renderables.getChangeTickAt(i) > since && positions.has(entityID)) {
+                index(entityID, positions.indexOf(entityID));
+            }
+        }
+    }
+
+    private void index(int entityID, int row) {
+        Renderable renderable = renderables.get(entityID);
+        float width = 0f;
+        float height = 0f;
+        if (renderable != null) {
+            width = renderable.getSprite().getSizeX();
+            height = renderable.getSprite().getSizeY();
+        }
+        grid.update(entityID, positionColumns.x[row], positionColumns.y[row], width, height);
+        reindexed++;
+    }
+}
@@ -0,0 +1,274 @@
+package studiosoft.project.systems;
+
+import jdk.jfr.EventType;
+import studiosoft.project.profiling.FrameProfiler;
+import studiosoft.project.profiling.SystemUpdateEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// runs a list of systems once per update. systems keep the order they were added in
+// wherever it matters: a system waits for every earlier system whose writes overlap its reads
+// or writes (or whose reads overlap its writes). systems with no such overlap run in parallel
+// on the executor, while main thread systems are run in order on the calling thread.
+// a plain ECSSystem with no declarations is treated as a main thread barrier that touches everything.
+//
+// each update is emitted as a SystemUpdateEvent when a JFR recording has it enabled, and timed
+// into a FrameProfiler if one is set
+public class SystemScheduler {
+    private static final EventType SYSTEM_UPDATE_EVENT = EventType.getEventType(SystemUpdateEvent.class);
+    private static final int SPINS_BEFORE_YIELD = 1000;
+
+    private final Executor executor;
+    private final List<ECSSystem> systems = new ArrayList<>();
+
+    // dependencies[j] = indices of earlier systems that j has to wait for
+    private int[][] dependencies;
+    // dependents[i] = later systems waiting on i
+    private int[][] dependents;
+    private boolean[] mainThread;
+    private boolean hasParallelSystems;
+
+    // per update state for the parallel path
+    private SystemTask[] tasks;
+    private AtomicIntegerArray waitingOn;
+    private float deltaTime;
+    private volatile Throwable failure;
+
+    private FrameProfiler profiler;
+    // profiler phase per system, same order as systems
+    private int[] profilerPhases;
+
+    public SystemScheduler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    // pass Executors.newVirtualThreadPerTaskExecutor() etc to run on something other than the common pool
+    public SystemScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void addSystem(ECSSystem system) {
+        systems.add(system);
+        dependencies = null;
+        profilerPhases = null;
+    }
+
+    // pass null to stop profiling
+    public void setProfiler(FrameProfiler profiler) {
+        this.profiler = profiler;
+        profilerPhases = null;
+    }
+
+    public List<ECSSystem> getSystems() {
+        return systems;
+    }
+
+    public void update(float deltaTime) {
+        if (dependencies == null) {
+            buildDependencyGraph();
+        }
+        if (profiler != null && profilerPhases == null) {
+            profilerPhases = new int[systems.size()];
+            for (int i = 0; i < systems.size(); i++) {
+                profilerPhases[i] = profiler.registerPhase(systems.get(i).getClass().getSimpleName());
+            }
+        }
+
+        // nothing to overlap, skip the tasks entirely
+        if (!hasParallelSystems) {
+            for (int i = 0; i < systems.size(); i++) {
+                runSystem(i, deltaTime);
+            }
+            return;
+        }
+
+        this.deltaTime = deltaTime;
+        failure = null;
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i].reinitialize();
+            waitingOn.set(i, dependencies[i].length);
+        }
+        // off thread systems with nothing to wait for start straight away, the rest are started by
+        // whichever dependency finishes last
+        for (int i = 0; i < tasks.length; i++) {
+            if (!mainThread[i] && dependencies[i].length == 0) {
+                executor.execute(tasks[i]);
+            }
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            if (mainThread[i]) {
+                for (int dep : dependencies[i]) {
+                    awaitDone(tasks[dep]);
+                }
+                tasks[i].invoke();
+            }
+        }
+        for (SystemTask task : tasks) {
+            awaitDone(task);
+        }
+
+        Throwable failed = failure;
+        if (failed != null) {
+            failure = null;
+            if (failed instanceof RuntimeException e) {
+                throw e;
+            }
+            if (failed instanceof Error e) {
+                throw e;
+            }
+            throw new RuntimeException(failed);
+        }
+    }
+
+    private void runSystem(int index, float deltaTime) {
+        ECSSystem system = systems.get(index);
+        // only build the event when a recording wants it, so there's no garbage otherwise
+        SystemUpdateEvent event = null;
+        if (SYSTEM_UPDATE_EVENT.isEnabled()) {
+            event = new SystemUpdateEvent();
+            event.begin();
+        }
+        long start = profiler != null ? System.nanoTime() : 0;
+
+        system.update(deltaTime);
+
+        if (profiler != null) {
+            profiler.end(profilerPhases[index], start);
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.system = system.getClass().getSimpleName();
+                event.entityCount = system.getEntityCount();
+                event.commit();
+            }
+        }
+    }
+
+    // let any off thread systems that were only waiting on this one go
+    private void finished(int index) {
+        for (int dependent : dependents[index]) {
+            if (waitingOn.decrementAndGet(dependent) == 0 && !mainThread[dependent]) {
+                executor.execute(tasks[dependent]);
+            }
+        }
+    }
+
+    // systems are short, so spin rather than park (parking a thread that isn't a pool worker allocates)
+    private static void awaitDone(ForkJoinTask<?> task) {
+        for (int spins = 0; !task.isDone(); spins++) {
+            if (spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    // one per system, reused every update (reinitialize) so scheduling doesn't make garbage.
+    // a ForkJoinTask so the pool runs it as is rather than wrapping it, and a Runnable for any other executor.
+    // ForkJoinTask is Serializable but these never are, they only live inside their scheduler
+    @SuppressWarnings("serial")
+    private final class SystemTask extends RecursiveAction implements Runnable {
+        private final int index;
+
+        SystemTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                // once something has failed, the rest of the update is skipped, but still
+                // completed so nothing is left waiting
+                if (failure == null) {
+                    runSystem(index, deltaTime);
+                }
+            } catch (Throwable t) {
+                synchronized (SystemScheduler.this) {
+                    if (failure == null) {
+                        failure = t;
+                    }
+                }
+            } finally {
+                finished(index);
+            }
+        }
+
+        @Override
+        public void run() {
+            invoke();
+        }
+    }
+
+    private void buildDependencyGraph() {
+        dependencies = new int[systems.size()][];
+        hasParallelSystems = false;
+        for (int j = 0; j < systems.size(); j++) {
+            ECSSystem later = systems.get(j);
+            if (!isMainThread(later)) {
+                hasParallelSystems = true;
+            }
+
+            List<Integer> deps = new ArrayList<>();
+            for (int i = 0; i < j; i++) {
+                if (conflicts(systems.get(i), later)) {
+                    deps.add(i);
+                }
+            }
+            dependencies[j] = deps.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        int count = systems.size();
+        mainThread = new boolean[count];
+        tasks = new SystemTask[count];
+        int[] dependentCounts = new int[count];
+        for (int j = 0; j < count; j++) {
+            mainThread[j] = isMainThread(systems.get(j));
+            tasks[j] = new SystemTask(j);
+            for (int dep : dependencies[j]) {
+                dependentCounts[dep]++;
+            }
+        }
+        dependents = new int[count][];
+        for (int i = 0; i < count; i++) {
+            dependents[i] = new int[dependentCounts[i]];
+            dependentCounts[i] = 0;
+        }
+        for (int j = 0; j < count; j++) {
+            for (int dep : dependencies[j]) {
+                dependents[dep][dependentCounts[dep]++] = j;
+            }
+        }
+        waitingOn = new AtomicIntegerArray(count);
+    }
+
+    private static boolean isMainThread(ECSSystem system) {
+        return !(system instanceof ScheduledSystem scheduled) || scheduled.runsOnMainThread();
+    }
+
+    private static boolean conflicts(ECSSystem a, ECSSystem b) {
+        if (!(a instanceof ScheduledSystem first) || !(b instanceof ScheduledSystem second)) {
+            return true;
+        }
+        return overlaps(first.getWrites(), second.getReads())
+                || overlaps(first.getWrites(), second.getWrites())
+                || overlaps(first.getReads(), second.getWrites());
+    }
+
+    private static boolean overlaps(Set<Class<?>> a, Set<Class<?>> b) {
+        for (Class<?> type : a) {
+            if (b.contains(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
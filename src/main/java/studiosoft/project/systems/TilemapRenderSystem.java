@@ -1,67 +1,169 @@
 package studiosoft.project.systems;
 
 import org.joml.Matrix4f;
+import org.joml.primitives.Rectanglef;
 import org.lwjgl.BufferUtils;
-import org.lwjgl.system.MemoryStack;
 import studiosoft.project.Camera;
+import studiosoft.project.CommandBuffer;
+import studiosoft.project.ComponentStorage;
+import studiosoft.project.FrameUniforms;
+import studiosoft.project.GLState;
+import studiosoft.project.Query;
 import studiosoft.project.ShaderProgram;
 import studiosoft.project.Texture;
+import studiosoft.project.Uniform;
 import studiosoft.project.World;
 import studiosoft.project.components.LevelRenderData;
+import studiosoft.project.components.TilemapChunk;
 import studiosoft.project.components.TilemapRenderable;
 
 import java.nio.FloatBuffer;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Set;
 
 import static org.lwjgl.opengl.GL30.*;
 
-public class TilemapRenderSystem implements ECSSystem{
+// draws tilemaps chunk by chunk (see LevelRenderData), skipping chunks outside the camera view.
+// a chunk's mesh is only rebuilt when it's dirty and on screen, so big maps cost about what's visible
+public class TilemapRenderSystem implements ScheduledSystem {
+    // Each tile is a quad, which we'll make from two triangles (6 vertices).
+    // Each vertex has position (2 floats) and UVs (2 floats).
+    public static final int FLOATS_PER_TILE = 6 * 4;
+    // unchanged tiles allowed between two edits that still get patched with one upload
+    private static final int MAX_PATCH_GAP = 2;
+
     private World world;
     private Texture textureAtlas;
     private ShaderProgram shaderProgram;
     private Camera camera;
-
-    public TilemapRenderSystem(World world, Texture textureAtlas, ShaderProgram shaderProgram, Camera camera) {
+    private final int windowWidth;
+    private final int windowHeight;
+    private final Rectanglef viewBounds = new Rectanglef();
+    // chunk vertices are written here before upload, sized for one full chunk and reused
+    private final FloatBuffer chunkVertices =
+            BufferUtils.createFloatBuffer(LevelRenderData.CHUNK_SIZE * LevelRenderData.CHUNK_SIZE * FLOATS_PER_TILE);
+    // tiles are in world space, so the model matrix stays at identity
+    private final Matrix4f identity = new Matrix4f();
+    // looked up on the first update
+    private Uniform modelUniform;
+    private Uniform uvRemappingUniform;
+    private int chunksDrawn;
+
+    // setTile edits waiting to be uploaded, as chunk index * tiles per chunk + slot, sorted so
+    // neighbouring tiles can go up together
+    private int[] editKeys = new int[64];
+    private int tilesPatched;
+    private ComponentStorage<TilemapRenderable> tilemaps;
+    private ComponentStorage<LevelRenderData> levelRenderData;
+    private Query tilemapEntities;
+    private CommandBuffer commands;
+    // change tick as of the last update, anything stamped after it needs a rebuild
+    private int lastSeenTick = 0;
+
+    public TilemapRenderSystem(World world, Texture textureAtlas, ShaderProgram shaderProgram, Camera camera,
+                               int windowWidth, int windowHeight) {
         this.world = world;
         this.textureAtlas = textureAtlas;
-        this.shaderProgram = shaderProgram;
+        this.shaderProgram = FrameUniforms.requireBlock(shaderProgram);
         this.camera = camera;
+        this.windowWidth = windowWidth;
+        this.windowHeight = windowHeight;
+        this.tilemaps = world.getStorage(TilemapRenderable.class);
+        this.levelRenderData = world.getStorage(LevelRenderData.class);
+        this.tilemapEntities = world.createQuery(TilemapRenderable.class);
+        this.commands = world.createCommandBuffer();
+    }
+
+    @Override
+    public Set<Class<?>> getReads() {
+        return Set.of(TilemapRenderable.class);
+    }
+
+    // builds and adds LevelRenderData
+    @Override
+    public Set<Class<?>> getWrites() {
+        return Set.of(LevelRenderData.class);
+    }
+
+    @Override
+    public boolean runsOnMainThread() {
+        return true;
+    }
+
+    @Override
+    public int getEntityCount() {
+        return tilemapEntities.size();
     }
 
     @Override
     public void update(float deltaTime){
 
         //System.out.println("Context in TilemapRenderSystem: " + org.lwjgl.glfw.GLFW.glfwGetCurrentContext()); // ADD THIS LINE
-        // get all tilemap entities
-        List<Integer> tilemapEntities = world.queryEntitiesWith(TilemapRenderable.class);
-
-        //set camera view matrix to view uniform here somehow
-        shaderProgram.setUniform("view", camera.getViewMatrix());
+        int since = lastSeenTick;
+        lastSeenTick = world.advanceChangeTick();
 
-        for(Integer entID : tilemapEntities){
+        if (modelUniform == null) {
+            modelUniform = shaderProgram.getUniform("model");
+            uvRemappingUniform = shaderProgram.getUniform("useUVRemapping");
+        }
+        // free if it's bound already. projection/view come from the shared FrameData block
+        shaderProgram.bind();
+        camera.getViewBounds(windowWidth, windowHeight, viewBounds);
+        chunksDrawn = 0;
+        tilesPatched = 0;
+
+        for(int i = 0; i < tilemapEntities.size(); i++){
+            int entID = tilemapEntities.getEntity(i);
             // get data for the tilemap
-            TilemapRenderable tilemap = world.getComponent(TilemapRenderable.class, entID).stream().findFirst().get();
-            LevelRenderData renderData = world.getComponent(LevelRenderData.class, entID).stream().findFirst().get();
+            TilemapRenderable tilemap = tilemaps.get(entID);
+            LevelRenderData renderData = levelRenderData.get(entID);
             //System.out.println("upd");
 
-            // if tilemap changed or doesn't exist, need to rebuild VBO
-            boolean needsRebuild = renderData == null || tilemap.isDirty; //what flag is this?
+            if(renderData == null){
+                // can't add to the world while iterating it, the component lands at the next flush
+                renderData = new LevelRenderData();
+                commands.addComponent(entID, renderData);
+            }
 
-            if(needsRebuild) {
-                if(renderData == null){
-                    renderData = new LevelRenderData();
-                    world.addComponent(entID, renderData);
-                }
-                buildTilemapVBO(tilemap, renderData);
-                tilemap.isDirty = false;
+            // if the whole tilemap changed (or is new), every chunk needs rebuilding
+            if (renderData.chunks == null || renderData.chunksX != chunkCount(tilemap.tilemapWidth)
+                    || renderData.chunksY != chunkCount(tilemap.tilemapHeight)) {
+                layoutChunks(tilemap, renderData);
+            } else if (tilemap.pendingRebuild || tilemaps.changedSince(entID, since)) {
+                renderData.markAllChanged();
             }
+            tilemap.pendingRebuild = false;
+            applyTileEdits(tilemap, renderData);
 
             // render the tilemap
-            renderTilemap(renderData);
+            renderTilemap(tilemap, renderData);
         }
     }
 
-    private void buildTilemapVBO(TilemapRenderable tilemap, LevelRenderData renderData) {
+    private static int chunkCount(int tiles) {
+        return (tiles + LevelRenderData.CHUNK_SIZE - 1) / LevelRenderData.CHUNK_SIZE;
+    }
+
+    private void layoutChunks(TilemapRenderable tilemap, LevelRenderData renderData) {
+        // every chunk is built from scratch, so pending edits are already included. they're also keyed
+        // by the old width, decoding them against the new layout could land outside it
+        tilemap.pendingEditCount = 0;
+        deleteChunks(renderData);
+        int size = LevelRenderData.CHUNK_SIZE;
+        renderData.chunksX = chunkCount(tilemap.tilemapWidth);
+        renderData.chunksY = chunkCount(tilemap.tilemapHeight);
+        renderData.chunks = new TilemapChunk[renderData.chunksX * renderData.chunksY];
+        for (int cy = 0; cy < renderData.chunksY; cy++) {
+            for (int cx = 0; cx < renderData.chunksX; cx++) {
+                int tileX = cx * size;
+                int tileY = cy * size;
+                renderData.chunks[cy * renderData.chunksX + cx] = new TilemapChunk(tileX, tileY,
+                        Math.min(size, tilemap.tilemapWidth - tileX), Math.min(size, tilemap.tilemapHeight - tileY));
+            }
+        }
+    }
+
+    private void buildChunk(TilemapRenderable tilemap, TilemapChunk chunk) {
         /*// each tile is a quad (2 tri, 4 vert)
         // each vert needs (x,y) and (u,v) for pos and tex coords
         // 4 floats per vert => 16 floats per quad
@@ -131,50 +233,23 @@ public class TilemapRenderSystem implements ECSSystem{
         renderData.vertexCount = numTiles * 4; //4 vert per quad*/
 
         /// triangle
-        int numTiles = tilemap.tilemapWidth * tilemap.tilemapHeight;
-        // Each tile is a quad, which we'll make from two triangles (6 vertices).
-        // Each vertex has position (2 floats) and UVs (2 floats).
-        FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(numTiles * 6 * 4);
-
-        for (int y = 0; y < tilemap.tilemapHeight; y++) {
-            for (int x = 0; x < tilemap.tilemapWidth; x++) {
-                int tileID = tilemap.tileMap[y][x];
-                if (tileID == -1) continue; // Optional: skip empty tiles
-
-                float[] uvs = textureAtlas.getTileUVs(tileID);
-                float xPos = (float) x * tilemap.tileWidth;
-                float yPos = (float) y * tilemap.tileHeight;
-
-                // Vertex data for a quad, ordered for two triangles
-                // Triangle 1: Top-left, Bottom-left, Bottom-right
-                // Triangle 2: Bottom-right, Top-right, Top-left
-                float[] verts = {
-                        // Position      // UVs
-                        xPos, yPos,                           uvs[6], uvs[7], // Top-left
-                        xPos, yPos + tilemap.tileHeight,      uvs[0], uvs[1], // Bottom-left
-                        xPos + tilemap.tileWidth, yPos + tilemap.tileHeight, uvs[2], uvs[3], // Bottom-right
-
-                        xPos + tilemap.tileWidth, yPos + tilemap.tileHeight, uvs[2], uvs[3], // Bottom-right
-                        xPos + tilemap.tileWidth, yPos,       uvs[4], uvs[5], // Top-right
-                        xPos, yPos,                           uvs[6], uvs[7]  // Top-left
-                };
-                vertexBuffer.put(verts);
-            }
-        }
-        vertexBuffer.flip();
+        chunkVertices.clear();
+        writeTilemapVertices(tilemap, textureAtlas, chunk.tileX, chunk.tileY,
+                chunk.tileX + chunk.tilesWide, chunk.tileY + chunk.tilesHigh, chunkVertices);
+        chunkVertices.flip();
 
         // Generate and bind VAO
-        if (renderData.vaoID == 0) {
-            renderData.vaoID = glGenVertexArrays();
+        if (chunk.vaoID == 0) {
+            chunk.vaoID = glGenVertexArrays();
         }
-        glBindVertexArray(renderData.vaoID);
+        GLState.bindVertexArray(chunk.vaoID);
 
         // Generate and bind VBO
-        if (renderData.vboID == 0) {
-            renderData.vboID = glGenBuffers();
+        if (chunk.vboID == 0) {
+            chunk.vboID = glGenBuffers();
         }
-        glBindBuffer(GL_ARRAY_BUFFER, renderData.vboID);
-        glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, chunk.vboID);
+        glBufferData(GL_ARRAY_BUFFER, chunkVertices, GL_STATIC_DRAW);
 
         // Configure vertex attributes
         int stride = 4 * Float.BYTES;
@@ -185,64 +260,186 @@ public class TilemapRenderSystem implements ECSSystem{
         // Texture coordinate attribute (location = 1)
         glVertexAttribPointer(1, 2, GL_FLOAT, false, stride, 2 * Float.BYTES);
         glEnableVertexAttribArray(1);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
 
-        // Unbind VAO to be safe
-        glBindVertexArray(0);
+        chunk.vertexCount = chunkVertices.limit() / 4;
+        chunk.dirty = false;
+    }
 
-        renderData.vertexCount = numTiles * 6;
+    // fills dest with two triangles per tile (6 verts of x, y, u, v), in world space.
+    // pure CPU work with no GL calls, so it can be benchmarked and reused outside the renderer
+    public static void writeTilemapVertices(TilemapRenderable tilemap, Texture textureAtlas, FloatBuffer vertexBuffer) {
+        writeTilemapVertices(tilemap, textureAtlas, 0, 0, tilemap.tilemapWidth, tilemap.tilemapHeight, vertexBuffer);
+    }
+
+    // same, for just the tiles in [minX, maxX) x [minY, maxY)
+    public static void writeTilemapVertices(TilemapRenderable tilemap, Texture textureAtlas,
+                                            int minX, int minY, int maxX, int maxY, FloatBuffer vertexBuffer) {
+        for (int y = minY; y < maxY; y++) {
+            for (int x = minX; x < maxX; x++) {
+                writeTile(tilemap, textureAtlas, x, y, vertexBuffer);
+            }
+        }
     }
 
-    private void renderTilemap(LevelRenderData renderData){
+    // every tile gets its FLOATS_PER_TILE slot, even empty ones, so a tile's vertices are always at
+    // the same offset in its chunk and can be patched in place
+    private static void writeTile(TilemapRenderable tilemap, Texture textureAtlas, int x, int y, FloatBuffer vertexBuffer) {
+        int tileID = tilemap.tileMap[y][x];
+        if (tileID == -1) {
+            // empty tile, zero area quad that draws nothing
+            for (int i = 0; i < FLOATS_PER_TILE; i++) {
+                vertexBuffer.put(0f);
+            }
+            return;
+        }
+
+        // shared table, so nothing is allocated per tile
+        float[] uvs = textureAtlas.getTileUVTable();
+        int uv = tileID * 8;
+        if (tileID < 0 || uv + 8 > uvs.length) {
+            throw new IllegalArgumentException("Tile ID " + tileID + " isn't in the texture atlas");
+        }
+        float x1 = (float) x * tilemap.tileWidth;
+        float y1 = (float) y * tilemap.tileHeight;
+        float x2 = x1 + tilemap.tileWidth;
+        float y2 = y1 + tilemap.tileHeight;
+
+        // Vertex data for a quad, ordered for two triangles
+        // Triangle 1: Top-left, Bottom-left, Bottom-right
+        // Triangle 2: Bottom-right, Top-right, Top-left
+        vertexBuffer.put(x1).put(y1).put(uvs[uv + 6]).put(uvs[uv + 7]); // Top-left
+        vertexBuffer.put(x1).put(y2).put(uvs[uv]).put(uvs[uv + 1]); // Bottom-left
+        vertexBuffer.put(x2).put(y2).put(uvs[uv + 2]).put(uvs[uv + 3]); // Bottom-right
+
+        vertexBuffer.put(x2).put(y2).put(uvs[uv + 2]).put(uvs[uv + 3]); // Bottom-right
+        vertexBuffer.put(x2).put(y1).put(uvs[uv + 4]).put(uvs[uv + 5]); // Top-right
+        vertexBuffer.put(x1).put(y1).put(uvs[uv + 6]).put(uvs[uv + 7]); // Top-left
+    }
+
+    private void renderTilemap(TilemapRenderable tilemap, LevelRenderData renderData){
         // The Model matrix is now an identity matrix because the vertex positions
         // are already in world space. The camera's view matrix will handle positioning.
-        shaderProgram.setUniform("model", new Matrix4f()); // Set a neutral model matrix
-        shaderProgram.setUniform("useUVRemapping", false);
+        modelUniform.set(identity); // Set a neutral model matrix
+        uvRemappingUniform.set(false);
 
         textureAtlas.bind();
-        glBindVertexArray(renderData.vaoID);
 
-        glDrawArrays(GL_TRIANGLES, 0, renderData.vertexCount);
-
-        // Unbind after drawing
-        glBindVertexArray(0);
-        glBindTexture(GL_TEXTURE_2D, 0);
+        // only the chunks overlapping the view
+        float chunkWidth = (float) tilemap.tileWidth * LevelRenderData.CHUNK_SIZE;
+        float chunkHeight = (float) tilemap.tileHeight * LevelRenderData.CHUNK_SIZE;
+        int firstX = Math.max(0, (int) Math.floor(viewBounds.minX / chunkWidth));
+        int firstY = Math.max(0, (int) Math.floor(viewBounds.minY / chunkHeight));
+        int lastX = Math.min(renderData.chunksX - 1, (int) Math.floor(viewBounds.maxX / chunkWidth));
+        int lastY = Math.min(renderData.chunksY - 1, (int) Math.floor(viewBounds.maxY / chunkHeight));
+
+        for (int cy = firstY; cy <= lastY; cy++) {
+            for (int cx = firstX; cx <= lastX; cx++) {
+                TilemapChunk chunk = renderData.getChunk(cx, cy);
+                if (chunk.dirty) {
+                    buildChunk(tilemap, chunk);
+                }
+                if (chunk.vertexCount == 0) {
+                    continue;
+                }
+                GLState.bindVertexArray(chunk.vaoID);
+                glDrawArrays(GL_TRIANGLES, 0, chunk.vertexCount);
+                chunksDrawn++;
+            }
+        }
     }
 
-    private void updateTexCoords(int vaoID, float[] uvs) {
-        // only uvs are being changed, which are at offset 2 floats in each vertex (8 bytes)
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer uvBuffer = stack.mallocFloat(2);
-
-            // assuming vbo is still bound from setup - can rebind if needed
-            // calc offset where UVs start (2 floats into each vert)
-            for(int i = 0; i < 4; i++){
-                // each vert is 4 bytes, wanting to update floats 2 and 3 of each
-                long offsetBytes = (i * 4 + 2) * Float.BYTES;
-
-                uvBuffer.clear();
-                uvBuffer.put(uvs[i*2]);
-                uvBuffer.put(uvs[i*2 + 1]);
-                uvBuffer.flip();
+    // patch the vertices of tiles changed through TilemapRenderable.setTile, instead of rebuilding their
+    // chunks. edits are sorted by chunk and slot so neighbouring tiles (a dug out row, an opened door)
+    // go up in one glBufferSubData. tiles in chunks that are already dirty are skipped, the rebuild covers them
+    private void applyTileEdits(TilemapRenderable tilemap, LevelRenderData renderData) {
+        int count = tilemap.pendingEditCount;
+        if (count == 0) {
+            return;
+        }
+        tilemap.pendingEditCount = 0;
 
-                //wrte u and v (2 floats) for this vert
-                glBufferSubData(GL_ARRAY_BUFFER, offsetBytes, uvBuffer);
+        int tilesPerChunk = LevelRenderData.CHUNK_SIZE * LevelRenderData.CHUNK_SIZE;
+        if (editKeys.length < count) {
+            editKeys = new int[Math.max(count, editKeys.length * 2)];
+        }
+        int keyCount = 0;
+        for (int i = 0; i < count; i++) {
+            int tile = tilemap.pendingEdits[i];
+            int x = tile % tilemap.tilemapWidth;
+            int y = tile / tilemap.tilemapWidth;
+            int chunkX = x / LevelRenderData.CHUNK_SIZE;
+            int chunkY = y / LevelRenderData.CHUNK_SIZE;
+            TilemapChunk chunk = renderData.getChunk(chunkX, chunkY);
+            if (chunk.dirty) {
+                continue;
+            }
+            int slot = (y - chunk.tileY) * chunk.tilesWide + (x - chunk.tileX);
+            editKeys[keyCount++] = (chunkY * renderData.chunksX + chunkX) * tilesPerChunk + slot;
+        }
+        Arrays.sort(editKeys, 0, keyCount);
+
+        int i = 0;
+        while (i < keyCount) {
+            int chunkIndex = editKeys[i] / tilesPerChunk;
+            int firstSlot = editKeys[i] % tilesPerChunk;
+            int lastSlot = firstSlot;
+            i++;
+            // rewriting a couple of unchanged tiles is cheaper than another call
+            while (i < keyCount && editKeys[i] / tilesPerChunk == chunkIndex
+                    && editKeys[i] % tilesPerChunk <= lastSlot + 1 + MAX_PATCH_GAP) {
+                lastSlot = editKeys[i] % tilesPerChunk;
+                i++;
             }
+            patchChunk(tilemap, renderData.chunks[chunkIndex], firstSlot, lastSlot);
+        }
+    }
 
-            glBindVertexArray(0);
+    private void patchChunk(TilemapRenderable tilemap, TilemapChunk chunk, int firstSlot, int lastSlot) {
+        chunkVertices.clear();
+        for (int slot = firstSlot; slot <= lastSlot; slot++) {
+            writeTile(tilemap, textureAtlas, chunk.tileX + slot % chunk.tilesWide, chunk.tileY + slot / chunk.tilesWide,
+                    chunkVertices);
         }
+        chunkVertices.flip();
+
+        glBindBuffer(GL_ARRAY_BUFFER, chunk.vboID);
+        glBufferSubData(GL_ARRAY_BUFFER, (long) firstSlot * FLOATS_PER_TILE * Float.BYTES, chunkVertices);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        tilesPatched += lastSlot - firstSlot + 1;
+    }
+
+    // tiles re-uploaded by patches in the last update
+    public int getTilesPatched() {
+        return tilesPatched;
     }
 
     // Dispose resources when game ends or level changes completely
     public void dispose(int entityID){
-        LevelRenderData renderData = world.getComponent(LevelRenderData.class, entityID).stream()
-                .findFirst().orElse(null);
+        LevelRenderData renderData = levelRenderData.get(entityID);
         if(renderData != null){
-            glDeleteBuffers(renderData.vboID);
-            glDeleteVertexArrays(renderData.vaoID);
+            deleteChunks(renderData);
 
             //remove component from entity if no longer needed
-            /// method does not yet have implementation
             world.removeComponent(entityID, LevelRenderData.class);
         }
     }
+
+    private void deleteChunks(LevelRenderData renderData) {
+        if (renderData.chunks == null) {
+            return;
+        }
+        for (TilemapChunk chunk : renderData.chunks) {
+            if (chunk.vaoID != 0) {
+                glDeleteBuffers(chunk.vboID);
+                GLState.deleteVertexArray(chunk.vaoID);
+            }
+        }
+        renderData.chunks = null;
+    }
+
+    // chunks drawn by the last update, after culling
+    public int getChunksDrawn() {
+        return chunksDrawn;
+    }
 }
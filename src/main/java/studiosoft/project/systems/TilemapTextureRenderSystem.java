@@ -0,0 +1,249 @@
+package studiosoft.project.systems;
+
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import studiosoft.project.CommandBuffer;
+import studiosoft.project.ComponentStorage;
+import studiosoft.project.FrameUniforms;
+import studiosoft.project.GLState;
+import studiosoft.project.Query;
+import studiosoft.project.ShaderProgram;
+import studiosoft.project.Texture;
+import studiosoft.project.Uniform;
+import studiosoft.project.World;
+import studiosoft.project.components.TilemapRenderable;
+import studiosoft.project.components.TilemapTextureData;
+
+import java.nio.ShortBuffer;
+import java.util.Set;
+
+import static org.lwjgl.opengl.GL30.*;
+
+// alternative to TilemapRenderSystem that keeps no mesh at all: the tile IDs go into a GL_R16UI
+// texture (2 bytes a tile, so 32 MB for 4096x4096) and each tilemap is one quad whose fragment shader
+// looks up its tile and works out the atlas UVs (shaders/tilemap_gpu.*). the quad covers the map,
+// the rasterizer clips it to the screen, so cost follows the pixels drawn rather than the map size.
+// a setTile edit is a one texel glTexSubImage2D.
+//
+// the shader reads projection/view from the FrameData block (FrameUniforms) and needs texture_sampler,
+// tileIndices, mapInfo and atlasInfo uniforms. it's left bound afterwards, so later systems bind their own.
+// texture unit 0 is left active
+public class TilemapTextureRenderSystem implements ScheduledSystem {
+    // what an empty (-1) tile is stored as
+    private static final int EMPTY_TILE = 0xFFFF;
+    private static final int ATLAS_UNIT = 0;
+    private static final int INDEX_UNIT = 1;
+
+    private World world;
+    private Texture textureAtlas;
+    private ShaderProgram shaderProgram;
+    private ComponentStorage<TilemapRenderable> tilemaps;
+    private ComponentStorage<TilemapTextureData> textureData;
+    private Query tilemapEntities;
+    private CommandBuffer commands;
+    private int lastSeenTick = 0;
+
+    private int quadVaoID;
+    // GL_MAX_TEXTURE_SIZE, the widest/tallest map this can draw. GL 3.3 only promises 1024
+    private int maxTextureSize;
+    private int quadVboID;
+    private final Vector4f mapInfo = new Vector4f();
+    private final Vector4f atlasInfo = new Vector4f();
+    // looked up on the first update
+    private Uniform samplerUniform;
+    private Uniform tileIndicesUniform;
+    private Uniform mapInfoUniform;
+    private Uniform atlasInfoUniform;
+
+    public TilemapTextureRenderSystem(World world, Texture textureAtlas, ShaderProgram shaderProgram) {
+        if (textureAtlas.isRegion()) {
+            // the shader works tile UVs out from the whole texture's size
+            throw new IllegalArgumentException("GPU tilemaps need their atlas as a whole texture, not an AtlasPacker region");
+        }
+        this.world = world;
+        this.textureAtlas = textureAtlas;
+        this.shaderProgram = FrameUniforms.requireBlock(shaderProgram);
+        this.tilemaps = world.getStorage(TilemapRenderable.class);
+        this.textureData = world.getStorage(TilemapTextureData.class);
+        this.tilemapEntities = world.createQuery(TilemapRenderable.class);
+        this.commands = world.createCommandBuffer();
+    }
+
+    @Override
+    public Set<Class<?>> getReads() {
+        return Set.of(TilemapRenderable.class);
+    }
+
+    // builds and adds TilemapTextureData
+    @Override
+    public Set<Class<?>> getWrites() {
+        return Set.of(TilemapTextureData.class);
+    }
+
+    @Override
+    public boolean runsOnMainThread() {
+        return true;
+    }
+
+    @Override
+    public int getEntityCount() {
+        return tilemapEntities.size();
+    }
+
+    @Override
+    public void update(float deltaTime) {
+        int since = lastSeenTick;
+        lastSeenTick = world.advanceChangeTick();
+
+        if (quadVaoID == 0) {
+            createQuad();
+            maxTextureSize = glGetInteger(GL_MAX_TEXTURE_SIZE);
+            samplerUniform = shaderProgram.getUniform("texture_sampler");
+            tileIndicesUniform = shaderProgram.getUniform("tileIndices");
+            mapInfoUniform = shaderProgram.getUniform("mapInfo");
+            atlasInfoUniform = shaderProgram.getUniform("atlasInfo");
+        }
+
+        // all of these are skipped when nothing changed since last frame
+        shaderProgram.bind();
+        samplerUniform.set(ATLAS_UNIT);
+        tileIndicesUniform.set(INDEX_UNIT);
+        atlasInfo.set(textureAtlas.getWidth(), textureAtlas.getHeight(), textureAtlas.getTileSize(), 0f);
+        atlasInfoUniform.set(atlasInfo);
+
+        for (int i = 0; i < tilemapEntities.size(); i++) {
+            int entID = tilemapEntities.getEntity(i);
+            TilemapRenderable tilemap = tilemaps.get(entID);
+            TilemapTextureData data = textureData.get(entID);
+
+            if (data == null) {
+                // can't add to the world while iterating it, the component lands at the next flush
+                data = new TilemapTextureData();
+                commands.addComponent(entID, data);
+            }
+
+            if (data.indexTextureID == 0 || data.width != tilemap.tilemapWidth || data.height != tilemap.tilemapHeight
+                    || tilemap.pendingRebuild || tilemaps.changedSince(entID, since)) {
+                uploadAll(tilemap, data);
+            } else {
+                uploadEdits(tilemap, data);
+            }
+
+            mapInfo.set(tilemap.tilemapWidth, tilemap.tilemapHeight, tilemap.tileWidth, tilemap.tileHeight);
+            mapInfoUniform.set(mapInfo);
+            // the uploads already left the index texture bound on its unit
+            GLState.bindTexture(INDEX_UNIT, data.indexTextureID);
+            GLState.activeTexture(ATLAS_UNIT);
+            textureAtlas.bind();
+
+            GLState.bindVertexArray(quadVaoID);
+            glDrawArrays(GL_TRIANGLES, 0, 6);
+        }
+
+        // everything else draws from unit 0
+        GLState.activeTexture(ATLAS_UNIT);
+    }
+
+    private void uploadAll(TilemapRenderable tilemap, TilemapTextureData data) {
+        if (tilemap.tilemapWidth > maxTextureSize || tilemap.tilemapHeight > maxTextureSize) {
+            // glTexImage2D would only set GL_INVALID_VALUE and the map would quietly not draw
+            throw new IllegalStateException("Tilemap is " + tilemap.tilemapWidth + "x" + tilemap.tilemapHeight
+                    + " tiles but this GPU's textures are at most " + maxTextureSize + "x" + maxTextureSize
+                    + ", draw it with TilemapRenderSystem instead");
+        }
+
+        // the whole map is going up, so any single tile edits are already included
+        tilemap.pendingEditCount = 0;
+        tilemap.pendingRebuild = false;
+
+        if (data.indexTextureID == 0) {
+            data.indexTextureID = glGenTextures();
+        }
+        data.width = tilemap.tilemapWidth;
+        data.height = tilemap.tilemapHeight;
+
+        ShortBuffer ids = MemoryUtil.memAllocShort(data.width * data.height);
+        try {
+            for (int y = 0; y < data.height; y++) {
+                for (int x = 0; x < data.width; x++) {
+                    ids.put(toTexel(tilemap.tileMap[y][x]));
+                }
+            }
+            ids.flip();
+
+            GLState.bindTexture(INDEX_UNIT, data.indexTextureID);
+            // integer textures can't be filtered
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_R16UI, data.width, data.height, 0, GL_RED_INTEGER, GL_UNSIGNED_SHORT, ids);
+        } finally {
+            MemoryUtil.memFree(ids);
+        }
+    }
+
+    // one texel per tile changed through TilemapRenderable.setTile
+    private void uploadEdits(TilemapRenderable tilemap, TilemapTextureData data) {
+        int count = tilemap.pendingEditCount;
+        if (count == 0) {
+            return;
+        }
+        tilemap.pendingEditCount = 0;
+
+        GLState.bindTexture(INDEX_UNIT, data.indexTextureID);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            ShortBuffer texel = stack.mallocShort(1);
+            for (int i = 0; i < count; i++) {
+                int tile = tilemap.pendingEdits[i];
+                int x = tile % tilemap.tilemapWidth;
+                int y = tile / tilemap.tilemapWidth;
+                texel.put(0, toTexel(tilemap.tileMap[y][x]));
+                glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, 1, 1, GL_RED_INTEGER, GL_UNSIGNED_SHORT, texel);
+            }
+        }
+    }
+
+    private static short toTexel(int tileID) {
+        if (tileID == -1) {
+            return (short) EMPTY_TILE;
+        }
+        if (tileID < 0 || tileID >= EMPTY_TILE) {
+            throw new IllegalArgumentException("Tile ID " + tileID + " doesn't fit in a 16 bit tile texture");
+        }
+        return (short) tileID;
+    }
+
+    private void createQuad() {
+        float[] quad = {
+                0f, 1f,
+                0f, 0f,
+                1f, 0f,
+
+                1f, 0f,
+                1f, 1f,
+                0f, 1f
+        };
+        quadVaoID = glGenVertexArrays();
+        GLState.bindVertexArray(quadVaoID);
+        quadVboID = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, quadVboID);
+        glBufferData(GL_ARRAY_BUFFER, quad, GL_STATIC_DRAW);
+        glVertexAttribPointer(0, 2, GL_FLOAT, false, 2 * Float.BYTES, 0);
+        glEnableVertexAttribArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLState.bindVertexArray(0);
+    }
+
+    // Dispose resources when game ends or level changes completely
+    public void dispose(int entityID) {
+        TilemapTextureData data = textureData.get(entityID);
+        if (data != null) {
+            GLState.deleteTexture(data.indexTextureID);
+            world.removeComponent(entityID, TilemapTextureData.class);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+#version 330 core
+
+// instanced variant of tilemap.vert for sprites. every instance draws the same unit quad,
+// moved/scaled by its own attributes, so no model matrix or per sprite uniforms are needed
+
+// the shared unit quad, (0,0) to (1,1)
+layout (location = 0) in vec2 aPos;
+layout (location = 1) in vec2 aTexCoord;
+
+// per instance (glVertexAttribDivisor 1)
+// xy = world position, zw = size in pixels
+layout (location = 2) in vec4 iPosSize;
+// xy = UV start on the atlas, zw = UV width/height (same as Sprite.getUVsAsVector)
+layout (location = 3) in vec4 iUVRect;
+
+// shared with every other shader, see FrameUniforms
+layout (std140) uniform FrameData {
+    mat4 projection;
+    mat4 view;
+    vec4 viewport; // xy = size in pixels
+    float time;    // seconds since the window opened
+};
+
+out vec2 TexCoord;
+
+void main()
+{
+    vec2 worldPos = iPosSize.xy + aPos * iPosSize.zw;
+    gl_Position = projection * view * vec4(worldPos, 0.0, 1.0);
+
+    // same remap tilemap.frag does with spriteUVs, done per vertex instead
+    TexCoord = iUVRect.xy + aTexCoord * iUVRect.zw;
+}
@@ -8,11 +8,14 @@ layout (location = 0) in vec2 aPos;
 // location = 1 corresponds to your second glVertexAttribPointer call
 layout (location = 1) in vec2 aTexCoord;
 
-// The projection matrix we'll send from our Java code
-uniform mat4 projection;
-
-// This allows camera to pan/zoom around the world space
-uniform mat4 view;
+// projection and view (camera pan/zoom), shared by every shader through one
+// uniform buffer (FrameUniforms), set once a frame from our Java code
+layout (std140) uniform FrameData {
+    mat4 projection;
+    mat4 view;
+    vec4 viewport; // xy = size in pixels
+    float time;    // seconds since the window opened
+};
 
 // whatever this is, something to do with textures idk
 uniform mat4 model;
@@ -0,0 +1,27 @@
+#version 330 core
+
+out vec4 FragColor;
+in vec2 TileCoord;
+
+// the atlas, same as tilemap.frag
+uniform sampler2D texture_sampler;
+// one texel per tile holding its tile ID, 65535 for no tile
+uniform usampler2D tileIndices;
+// xy = atlas size in pixels, z = atlas tile size in pixels (Texture.getTileSize)
+uniform vec4 atlasInfo;
+
+void main()
+{
+    ivec2 tile = ivec2(floor(TileCoord));
+    uint tileID = texelFetch(tileIndices, tile, 0).r;
+    if (tileID == 65535u) {
+        discard;
+    }
+
+    // same layout as Texture.getTileUVs: IDs go left to right, then top to bottom
+    uint tilesPerRow = uint(atlasInfo.x / atlasInfo.z);
+    vec2 atlasTile = vec2(float(tileID % tilesPerRow), float(tileID / tilesPerRow));
+    vec2 uv = (atlasTile + fract(TileCoord)) * atlasInfo.z / atlasInfo.xy;
+
+    FragColor = texture(texture_sampler, uv);
+}
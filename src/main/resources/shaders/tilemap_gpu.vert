@@ -0,0 +1,27 @@
+#version 330 core
+
+// draws a whole tilemap as one quad, tilemap_gpu.frag looks up which tile each pixel is in
+
+// unit quad, (0,0) to (1,1)
+layout (location = 0) in vec2 aPos;
+
+// shared with every other shader, see FrameUniforms
+layout (std140) uniform FrameData {
+    mat4 projection;
+    mat4 view;
+    vec4 viewport; // xy = size in pixels
+    float time;    // seconds since the window opened
+};
+
+// xy = map size in tiles, zw = tile size in world pixels
+uniform vec4 mapInfo;
+
+// position on the map in tiles, eg (3.5, 2.25) is half way across the tile at column 3, row 2
+out vec2 TileCoord;
+
+void main()
+{
+    vec2 worldPos = aPos * mapInfo.xy * mapInfo.zw;
+    gl_Position = projection * view * vec4(worldPos, 0.0, 1.0);
+    TileCoord = aPos * mapInfo.xy;
+}